@@ -0,0 +1,31 @@
+package com.person_back.config;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.person_back.dao.DuplicateDetector;
+import com.person_back.dao.PersonCounters;
+import com.person_back.dao.PersonDAO;
+import com.person_back.dao.PersonDataset;
+
+/**
+ * Warms up in-process structures on deploy and releases shared persistence
+ * resources when the webapp is undeployed
+ */
+public class PersistenceLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        PersonDataset.getInstance().start();
+        PersonCounters.getInstance().start();
+        DuplicateDetector.getInstance().start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        DuplicateDetector.getInstance().stop();
+        PersonCounters.getInstance().stop();
+        PersonDataset.getInstance().stop();
+        PersonDAO.shutdown();
+    }
+}
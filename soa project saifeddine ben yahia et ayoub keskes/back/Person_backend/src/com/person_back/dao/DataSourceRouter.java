@@ -0,0 +1,321 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import javax.persistence.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes DAO operations between the MySQL primary and optional read replicas.
+ *
+ * Writes always go to the primary. Reads go to a healthy replica (round robin),
+ * except when no replica is healthy or when the reader could see a replica
+ * that has not caught up with a recent write:
+ * - the same client wrote within the consistency window (read-your-writes,
+ *   the client's last write time travels in a cookie or header, see
+ *   rest.ReadYourWritesFilter),
+ * - or the person being read by id was written within the window.
+ * Writes by other clients do not move anyone else's reads to the primary.
+ *
+ * Replicas are configured with -Dperson.replica.urls=jdbc:mysql://r1/person_db,...
+ * and reuse the personPU settings with only the JDBC url overridden.
+ * The personPU connection itself can be overridden with -Dperson.db.url,
+ * person.db.user, person.db.password and person.db.driver.
+ */
+public class DataSourceRouter {
+
+    private static final Logger LOGGER = Logger.getLogger(DataSourceRouter.class.getName());
+
+    private static DataSourceRouter instance;
+
+    private final EntityManagerFactory primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final long consistencyWindowMillis;
+    private final ScheduledExecutorService healthChecker;
+    private final ConcurrentMap<Long, Long> recentWrites = new ConcurrentHashMap<>();
+    private final ThreadLocal<Client> client = ThreadLocal.withInitial(Client::new);
+    private volatile long lastWriteMillis;
+
+    /**
+     * Shared router, created on first use
+     */
+    public static synchronized DataSourceRouter getInstance() {
+        if (instance == null) {
+            instance = new DataSourceRouter();
+        }
+        return instance;
+    }
+
+    /**
+     * Close the shared router, if it was created
+     */
+    public static synchronized void shutdownInstance() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    private DataSourceRouter() {
+        this.primary = Persistence.createEntityManagerFactory("personPU", databaseOverrides());
+        this.consistencyWindowMillis = AppSettings.getLong("person.replica.consistencyWindowMillis", 2000);
+
+        String urls = AppSettings.getString("person.replica.urls", "");
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                replicas.add(new Replica(url.trim(), createReplicaFactory(url.trim())));
+            }
+        }
+
+        if (replicas.isEmpty()) {
+            this.healthChecker = null;
+        } else {
+            long interval = AppSettings.getLong("person.replica.healthCheckMillis", 5000);
+            this.healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "person-replica-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.healthChecker.scheduleWithFixedDelay(this::checkReplicas, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * personPU connection settings given with -Dperson.db.* (empty when none is set);
+     * replica and shard factories start from them too
+     */
+    static Map<String, Object> databaseOverrides() {
+        Map<String, Object> overrides = new HashMap<>();
+        String[][] settings = {
+            {"person.db.driver", "javax.persistence.jdbc.driver"},
+            {"person.db.url", "javax.persistence.jdbc.url"},
+            {"person.db.user", "javax.persistence.jdbc.user"},
+            {"person.db.password", "javax.persistence.jdbc.password"}
+        };
+        for (String[] setting : settings) {
+            String value = AppSettings.getString(setting[0], null);
+            if (value != null) {
+                overrides.put(setting[1], value);
+            }
+        }
+        return overrides;
+    }
+
+    private EntityManagerFactory createReplicaFactory(String url) {
+        Map<String, Object> overrides = databaseOverrides();
+        overrides.put("javax.persistence.jdbc.url", url);
+        overrides.put("hibernate.hbm2ddl.auto", "none");
+        String user = AppSettings.getString("person.replica.user", null);
+        if (user != null) {
+            overrides.put("javax.persistence.jdbc.user", user);
+            overrides.put("javax.persistence.jdbc.password", AppSettings.getString("person.replica.password", ""));
+        }
+        return Persistence.createEntityManagerFactory("personPU", overrides);
+    }
+
+    /**
+     * Factory for writes (and reads that must see them)
+     */
+    public EntityManagerFactory forWrite() {
+        return primary;
+    }
+
+    /**
+     * Factory for a read-only operation: a healthy replica when one is usable, else the primary
+     */
+    public EntityManagerFactory forRead() {
+        return forRead(null);
+    }
+
+    /**
+     * Factory for reading one person (or a collection when id is null)
+     */
+    public EntityManagerFactory forRead(Long id) {
+        if (readsFromPrimary(id)) {
+            return primary;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica.emf;
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * True when a read by the current thread must not use a replica
+     */
+    public boolean readsFromPrimary(Long id) {
+        if (replicas.isEmpty()) {
+            return true;
+        }
+        Client current = client.get();
+        long now = System.currentTimeMillis();
+        if (current.forcePrimary > 0 || now - current.lastWriteMillis < consistencyWindowMillis) {
+            return true;
+        }
+        Long written = id == null ? null : recentWrites.get(id);
+        return written != null && now - written < consistencyWindowMillis;
+    }
+
+    /**
+     * True when any client wrote within the consistency window (replicas may lag behind)
+     */
+    public boolean isWriteWindowOpen() {
+        return !replicas.isEmpty() && System.currentTimeMillis() - lastWriteMillis < consistencyWindowMillis;
+    }
+
+    /**
+     * Run work with every read of the current thread going to the primary
+     */
+    public <T> T onPrimary(Supplier<T> work) {
+        Client current = client.get();
+        current.forcePrimary++;
+        try {
+            return work.get();
+        } finally {
+            current.forcePrimary--;
+        }
+    }
+
+    /**
+     * Record a write committed by the current thread's client on behalf of a person
+     * (id may be null), opening the read-your-writes window
+     */
+    public void markWrite(Long id) {
+        long now = System.currentTimeMillis();
+        lastWriteMillis = now;
+        Client current = client.get();
+        current.lastWriteMillis = now;
+        current.wrote = true;
+        markWritten(id, now);
+    }
+
+    /**
+     * Record a committed write of a person without attributing it to the current thread's client
+     */
+    public void markWritten(Long id) {
+        long now = System.currentTimeMillis();
+        lastWriteMillis = now;
+        markWritten(id, now);
+    }
+
+    private void markWritten(Long id, long now) {
+        if (id == null || replicas.isEmpty()) {
+            return;
+        }
+        recentWrites.put(id, now);
+        if (recentWrites.size() > 4096) {
+            recentWrites.values().removeIf(written -> now - written >= consistencyWindowMillis);
+        }
+    }
+
+    /**
+     * Start serving a client request; lastWriteMillis is the client's last
+     * write time as it sent it back (null when unknown)
+     */
+    public void beginRequest(Long lastWriteMillis) {
+        Client current = new Client();
+        if (lastWriteMillis != null && lastWriteMillis <= System.currentTimeMillis()) {
+            current.lastWriteMillis = lastWriteMillis;
+        }
+        client.set(current);
+    }
+
+    /**
+     * Finish a client request; returns the time of a write made while serving it, or null
+     */
+    public Long endRequest() {
+        Client current = client.get();
+        client.remove();
+        return current.wrote ? current.lastWriteMillis : null;
+    }
+
+    public long getConsistencyWindowMillis() {
+        return consistencyWindowMillis;
+    }
+
+    /**
+     * Take a replica out of rotation after a failed read; the health check brings it back
+     */
+    public void markFailed(EntityManagerFactory emf) {
+        for (Replica replica : replicas) {
+            if (replica.emf == emf && replica.healthy) {
+                replica.healthy = false;
+                LOGGER.warning("Replica " + replica.url + " marked unhealthy after a failed read");
+            }
+        }
+    }
+
+    /**
+     * True when the factory is the primary
+     */
+    public boolean isPrimary(EntityManagerFactory emf) {
+        return emf == primary;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            EntityManager em = null;
+            try {
+                em = replica.emf.createEntityManager();
+                em.createNativeQuery("SELECT 1").getSingleResult();
+                healthy = true;
+            } catch (RuntimeException e) {
+                healthy = false;
+            } finally {
+                if (em != null) {
+                    em.close();
+                }
+            }
+            if (healthy != replica.healthy) {
+                LOGGER.log(healthy ? Level.INFO : Level.WARNING,
+                    "Replica " + replica.url + (healthy ? " is healthy again" : " failed its health check"));
+            }
+            replica.healthy = healthy;
+        }
+    }
+
+    private void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            if (replica.emf.isOpen()) {
+                replica.emf.close();
+            }
+        }
+        if (primary.isOpen()) {
+            primary.close();
+        }
+    }
+
+    /**
+     * Routing state of the client served by the current thread
+     */
+    private static final class Client {
+        long lastWriteMillis;
+        boolean wrote;
+        int forcePrimary;
+    }
+
+    private static final class Replica {
+        final String url;
+        final EntityManagerFactory emf;
+        volatile boolean healthy = true;
+
+        Replica(String url, EntityManagerFactory emf) {
+            this.url = url;
+            this.emf = emf;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import com.person_back.model.Person;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Near-duplicate detection for persons whose nom and prenom are spelled
+ * slightly differently.
+ *
+ * Persons are grouped into blocks by a blocking key (Soundex of nom and
+ * prenom plus the departement, see NameMatching). Only persons of the same
+ * block are compared, so the work grows with the block sizes rather than with
+ * the square of the table. The index is built once (from the warmed-up
+ * PersonDataset when loaded, otherwise from the database) and then kept
+ * current by PersonDAO change events. A full scan compares the blocks in
+ * parallel on a dedicated fork/join pool.
+ *
+ * The index holds every person in memory and is loaded on deploy, so it is
+ * off unless -Dperson.duplicates.enabled=true.
+ */
+public class DuplicateDetector implements PersonChangeListener {
+
+    private static final Logger LOGGER = Logger.getLogger(DuplicateDetector.class.getName());
+
+    private static final DuplicateDetector INSTANCE = new DuplicateDetector();
+
+    // Blocks compared by one fork/join task before it stops splitting
+    private static final int BLOCKS_PER_TASK = 32;
+
+    private final boolean enabled;
+    private final double threshold;
+    private final int parallelism;
+    private final ConcurrentMap<String, ConcurrentMap<Long, Entry>> blocks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, String> keys = new ConcurrentHashMap<>();
+    private volatile boolean indexed;
+    private ForkJoinPool pool;
+
+    private final AtomicLong scans = new AtomicLong();
+    private volatile long lastScanComparisons;
+    private volatile long lastScanMillis;
+
+    public static DuplicateDetector getInstance() {
+        return INSTANCE;
+    }
+
+    private DuplicateDetector() {
+        this.enabled = AppSettings.getBoolean("person.duplicates.enabled", false);
+        this.threshold = AppSettings.getDouble("person.duplicates.threshold", 0.9);
+        this.parallelism = AppSettings.getInt("person.duplicates.parallelism", Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Whether -Dperson.duplicates.enabled=true (the index holds every person in memory)
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Default minimum similarity for two persons to be reported
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Build the index and start following PersonDAO changes; does nothing unless
+     * -Dperson.duplicates.enabled=true
+     */
+    public synchronized void start() {
+        if (!enabled) {
+            return;
+        }
+        PersonDAO.addChangeListener(this);
+        try {
+            ensureIndexed();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not build the duplicate index, will retry on first use", e);
+        }
+    }
+
+    /**
+     * Stop following changes and release the fork/join pool
+     */
+    public synchronized void stop() {
+        PersonDAO.removeChangeListener(this);
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Index every person on first use if startup indexing did not happen.
+     * Throws IllegalStateException when duplicate detection is disabled.
+     */
+    private void ensureIndexed() {
+        if (!enabled) {
+            throw new IllegalStateException("Duplicate detection is disabled (-Dperson.duplicates.enabled=true)");
+        }
+        if (indexed) {
+            return;
+        }
+        synchronized (this) {
+            if (!indexed) {
+                PersonDataset dataset = PersonDataset.getInstance();
+                Collection<Person> persons = dataset.isLoaded() ? dataset.getPersons() : new PersonDAO().findAll();
+                for (Person person : persons) {
+                    // A change event may already have indexed a newer version
+                    if (!keys.containsKey(person.getId())) {
+                        add(person);
+                    }
+                }
+                indexed = true;
+            }
+        }
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            AtomicInteger threads = new AtomicInteger();
+            pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+                thread.setName("person-duplicates-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Indexed persons of the same block as this one whose names are at least
+     * as similar as the threshold, most similar first (the person itself excluded)
+     */
+    public List<Match> findSimilar(Person person) {
+        ensureIndexed();
+        Entry probe = new Entry(person);
+        Map<Long, Entry> block = blocks.get(probe.key);
+        if (block == null) {
+            return Collections.emptyList();
+        }
+        List<Match> matches = new ArrayList<>();
+        for (Entry other : block.values()) {
+            if (!other.person.getId().equals(person.getId())) {
+                double score = probe.similarity(other);
+                if (score >= threshold) {
+                    matches.add(new Match(new Person(person), new Person(other.person), score));
+                }
+            }
+        }
+        matches.sort(Match.BY_SCORE);
+        return matches;
+    }
+
+    /**
+     * All pairs of likely duplicates, most similar first.
+     *
+     * @param departement only compare the block of this departement (null for all)
+     * @param minScore    minimum similarity, between 0 and 1
+     */
+    public List<Match> findDuplicates(String departement, double minScore) {
+        ensureIndexed();
+        String departementKey = departement == null ? null : NameMatching.collationKey(departement);
+        List<Entry[]> candidates = new ArrayList<>();
+        for (ConcurrentMap<Long, Entry> block : blocks.values()) {
+            Entry[] members = block.values().toArray(new Entry[0]);
+            // Every member of a block has the same departement
+            if (departementKey != null && (members.length == 0 || !departementKey.equals(members[0].departement))) {
+                continue;
+            }
+            if (members.length > 1) {
+                candidates.add(members);
+            }
+        }
+
+        long start = System.nanoTime();
+        AtomicLong comparisons = new AtomicLong();
+        List<Match> matches = pool().invoke(new BlockScan(candidates, 0, candidates.size(), minScore, comparisons));
+        matches.sort(Match.BY_SCORE);
+        lastScanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastScanComparisons = comparisons.get();
+        scans.incrementAndGet();
+        return matches;
+    }
+
+    /**
+     * Index size, block sizes and the cost of the last full scan
+     */
+    public Map<String, Object> getStats() {
+        int largest = 0;
+        long pairs = 0;
+        for (Map<Long, Entry> block : blocks.values()) {
+            int size = block.size();
+            largest = Math.max(largest, size);
+            pairs += (long) size * (size - 1) / 2;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("indexed", indexed);
+        stats.put("persons", keys.size());
+        stats.put("blocks", blocks.size());
+        stats.put("largestBlock", largest);
+        stats.put("candidatePairs", pairs);
+        stats.put("threshold", threshold);
+        stats.put("parallelism", parallelism);
+        stats.put("scans", scans.get());
+        stats.put("lastScanComparisons", lastScanComparisons);
+        stats.put("lastScanMillis", lastScanMillis);
+        return stats;
+    }
+
+    @Override
+    public void onCreated(Person person) {
+        add(person);
+    }
+
+    @Override
+    public void onUpdated(Person before, Person after) {
+        add(after);
+    }
+
+    @Override
+    public void onDeleted(Person person) {
+        String key = keys.remove(person.getId());
+        if (key != null) {
+            removeFromBlock(key, person.getId());
+        }
+    }
+
+    private void add(Person person) {
+        Entry entry = new Entry(person);
+        String previous = keys.put(person.getId(), entry.key);
+        if (previous != null && !previous.equals(entry.key)) {
+            removeFromBlock(previous, person.getId());
+        }
+        blocks.compute(entry.key, (key, block) -> {
+            ConcurrentMap<Long, Entry> members = block == null ? new ConcurrentHashMap<>() : block;
+            members.put(person.getId(), entry);
+            return members;
+        });
+    }
+
+    private void removeFromBlock(String key, Long id) {
+        blocks.computeIfPresent(key, (k, block) -> {
+            block.remove(id);
+            return block.isEmpty() ? null : block;
+        });
+    }
+
+    /**
+     * Compares the persons of a range of blocks, splitting the range across the pool
+     */
+    private static final class BlockScan extends RecursiveTask<List<Match>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry[]> blocks;
+        private final int from;
+        private final int to;
+        private final double minScore;
+        private final AtomicLong comparisons;
+
+        BlockScan(List<Entry[]> blocks, int from, int to, double minScore, AtomicLong comparisons) {
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+            this.minScore = minScore;
+            this.comparisons = comparisons;
+        }
+
+        @Override
+        protected List<Match> compute() {
+            if (to - from > BLOCKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                BlockScan left = new BlockScan(blocks, from, middle, minScore, comparisons);
+                left.fork();
+                List<Match> matches = new BlockScan(blocks, middle, to, minScore, comparisons).compute();
+                matches.addAll(left.join());
+                return matches;
+            }
+            List<Match> matches = new ArrayList<>();
+            long compared = 0;
+            for (int b = from; b < to; b++) {
+                Entry[] members = blocks.get(b);
+                for (int i = 0; i < members.length; i++) {
+                    for (int j = i + 1; j < members.length; j++) {
+                        double score = members[i].similarity(members[j]);
+                        if (score >= minScore) {
+                            matches.add(Match.of(members[i].person, members[j].person, score));
+                        }
+                    }
+                }
+                compared += (long) members.length * (members.length - 1) / 2;
+            }
+            comparisons.addAndGet(compared);
+            return matches;
+        }
+    }
+
+    /**
+     * An indexed person with its blocking key, names in matching form and departement collation key
+     */
+    private static final class Entry {
+        final Person person;
+        final String key;
+        final String nom;
+        final String prenom;
+        final String departement;
+
+        Entry(Person person) {
+            this.person = person;
+            this.departement = NameMatching.collationKey(person.getDepartement());
+            this.key = NameMatching.blockingKey(person.getNom(), person.getPrenom(), person.getDepartement());
+            this.nom = NameMatching.matchingForm(person.getNom());
+            this.prenom = NameMatching.matchingForm(person.getPrenom());
+        }
+
+        double similarity(Entry other) {
+            return NameMatching.nameSimilarity(nom, prenom, other.nom, other.prenom);
+        }
+    }
+
+    /**
+     * Two persons that are likely the same, with their name similarity
+     */
+    public static final class Match {
+        static final Comparator<Match> BY_SCORE = Comparator.comparingDouble(Match::getScore).reversed()
+                .thenComparing(match -> match.getFirst().getId())
+                .thenComparing(match -> match.getSecond().getId());
+
+        private final Person first;
+        private final Person second;
+        private final double score;
+
+        Match(Person first, Person second, double score) {
+            this.first = first;
+            this.second = second;
+            this.score = Math.round(score * 1000) / 1000.0;
+        }
+
+        /**
+         * Pair with the lower id first; copies, the indexed persons stay untouched
+         */
+        static Match of(Person a, Person b, double score) {
+            return a.getId() < b.getId()
+                ? new Match(new Person(a), new Person(b), score)
+                : new Match(new Person(b), new Person(a), score);
+        }
+
+        public Person getFirst() {
+            return first;
+        }
+
+        public Person getSecond() {
+            return second;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
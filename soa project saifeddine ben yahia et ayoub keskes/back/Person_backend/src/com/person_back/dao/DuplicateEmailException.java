@@ -0,0 +1,20 @@
+package com.person_back.dao;
+
+/**
+ * Thrown when a person cannot be created because its email is already used
+ */
+public class DuplicateEmailException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String email;
+
+    public DuplicateEmailException(String email) {
+        super("Email '" + email + "' already exists");
+        this.email = email;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
@@ -0,0 +1,275 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import javax.persistence.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces concurrent single creates into shared transactions.
+ *
+ * Callers are queued and a single worker thread takes what is queued, checks
+ * all emails of the batch with one query, persists the accepted persons and
+ * commits once. A caller alone commits right away; only when other callers
+ * are still on their way to the queue does the worker wait for them, up to
+ * maxDelayMillis or maxBatchSize records. Each caller is then completed with
+ * its own person or error.
+ */
+public class GroupCommitWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(GroupCommitWriter.class.getName());
+
+    private static final int PENDING = 0;
+    private static final int CLAIMED = 1;
+    private static final int ABANDONED = 2;
+
+    private final EntityManagerFactory emf;
+    private final Consumer<List<Person>> afterCommit;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long timeoutMillis;
+    private final BlockingQueue<PendingCreate> queue;
+    // Callers in submit that the worker has not taken from the queue yet
+    private final AtomicInteger arriving = new AtomicInteger();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public GroupCommitWriter(EntityManagerFactory emf, int maxBatchSize, long maxDelayMillis,
+                             long timeoutMillis, int queueCapacity, Consumer<List<Person>> afterCommit) {
+        this.emf = emf;
+        this.afterCommit = afterCommit;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+        this.timeoutMillis = timeoutMillis;
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueCapacity));
+        this.worker = new Thread(this::run, "person-group-commit");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queue a create and wait for the batch holding it to commit.
+     * Throws DuplicateEmailException when the email is already used.
+     */
+    public Person submit(Person person) {
+        if (!running) {
+            throw new IllegalStateException("Group commit writer is shut down");
+        }
+        PendingCreate pending = new PendingCreate(person);
+        arriving.incrementAndGet();
+        try {
+            if (!queue.offer(pending, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                arriving.decrementAndGet();
+                throw new RuntimeException("Error creating person: group commit queue is full");
+            }
+        } catch (InterruptedException e) {
+            arriving.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Error creating person: interrupted while waiting for group commit");
+        }
+        try {
+            return pending.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return awaitClaimed(pending, "timed out waiting for group commit");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return awaitClaimed(pending, "interrupted while waiting for group commit");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Give up on a create that the worker has not picked yet; once it is part
+     * of a running batch its outcome is decided by that commit, so wait for
+     * it, but no longer than another timeoutMillis (a hung commit must not hold
+     * the request thread forever; the caller then gets an error although the
+     * commit may still succeed later).
+     */
+    private Person awaitClaimed(PendingCreate pending, String reason) {
+        if (pending.state.compareAndSet(PENDING, ABANDONED)) {
+            throw new RuntimeException("Error creating person: " + reason);
+        }
+        boolean interrupted = Thread.interrupted();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    return pending.result.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (TimeoutException e) {
+                    throw new RuntimeException("Error creating person: " + reason
+                        + ", the batch holding it has not committed yet (outcome unknown)");
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new RuntimeException("Error creating person: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Stop accepting creates, flush what is queued and wait for the worker
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingCreate> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingCreate first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                arriving.addAndGet(-1 - queue.drainTo(batch, maxBatchSize - batch.size()));
+                long deadline = System.nanoTime() + maxDelayNanos;
+                // Wait only for callers already in submit, a lone caller commits right away
+                while (batch.size() < maxBatchSize && arriving.get() > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingCreate next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        arriving.addAndGet(-queue.drainTo(batch, maxBatchSize - batch.size()));
+                        break;
+                    }
+                    batch.add(next);
+                    arriving.decrementAndGet();
+                }
+                List<PendingCreate> claimed = new ArrayList<>(batch.size());
+                for (PendingCreate pending : batch) {
+                    if (pending.state.compareAndSet(PENDING, CLAIMED)) {
+                        claimed.add(pending);
+                    }
+                }
+                writeBatch(claimed);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Unexpected group commit failure", e);
+                for (PendingCreate pending : batch) {
+                    pending.result.completeExceptionally(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write one batch in a single transaction. If the commit fails, the
+     * accepted records are retried one by one so only the offending caller
+     * receives the error.
+     */
+    private void writeBatch(List<PendingCreate> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<PendingCreate> accepted = new ArrayList<>(batch.size());
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Set<String> taken = findExistingEmails(em, batch);
+            for (PendingCreate pending : batch) {
+                String email = pending.person.getEmail().toLowerCase();
+                if (!taken.add(email)) {
+                    pending.result.completeExceptionally(new DuplicateEmailException(pending.person.getEmail()));
+                    continue;
+                }
+                accepted.add(pending);
+                em.persist(pending.person);
+            }
+            em.getTransaction().commit();
+            notifyCommitted(accepted);
+            for (PendingCreate pending : accepted) {
+                pending.result.complete(pending.person);
+            }
+        } catch (Exception e) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            for (PendingCreate pending : accepted) {
+                pending.person.setId(null);
+            }
+            if (accepted.size() > 1) {
+                for (PendingCreate pending : accepted) {
+                    writeBatch(Collections.singletonList(pending));
+                }
+            } else {
+                for (PendingCreate pending : accepted) {
+                    pending.result.completeExceptionally(
+                        new RuntimeException("Error creating person: " + e.getMessage(), e));
+                }
+            }
+            for (PendingCreate pending : batch) {
+                if (!pending.result.isDone()) {
+                    pending.result.completeExceptionally(
+                        new RuntimeException("Error creating person: " + e.getMessage(), e));
+                }
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    private void notifyCommitted(List<PendingCreate> committed) {
+        if (committed.isEmpty()) {
+            return;
+        }
+        List<Person> persons = new ArrayList<>(committed.size());
+        for (PendingCreate pending : committed) {
+            persons.add(pending.person);
+        }
+        try {
+            afterCommit.accept(persons);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "After-commit callback failed", e);
+        }
+    }
+
+    private Set<String> findExistingEmails(EntityManager em, List<PendingCreate> batch) {
+        Set<String> emails = new HashSet<>();
+        for (PendingCreate pending : batch) {
+            emails.add(pending.person.getEmail().toLowerCase());
+        }
+        TypedQuery<String> query = em.createQuery(
+            "SELECT LOWER(p.email) FROM Person p WHERE LOWER(p.email) IN (:emails)",
+            String.class
+        );
+        query.setParameter("emails", emails);
+        return new HashSet<>(QueryProfiler.getInstance().list("GroupCommitWriter.findExistingEmails", query));
+    }
+
+    private static final class PendingCreate {
+        final Person person;
+        final CompletableFuture<Person> result = new CompletableFuture<>();
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        PendingCreate(Person person) {
+            this.person = person;
+        }
+    }
+}
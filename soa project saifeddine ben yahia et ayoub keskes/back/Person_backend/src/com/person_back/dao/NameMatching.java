@@ -0,0 +1,224 @@
+package com.person_back.dao;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Name normalization, phonetic encoding and similarity used by duplicate detection,
+ * and the comparison key used to match values the way the database compares them
+ */
+public final class NameMatching {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    // Soundex digit per letter A..Z; '0' for vowels (and Y), '-' for H and W
+    private static final String SOUNDEX_CODES = "0123012-02245501262301-202";
+
+    private NameMatching() {
+    }
+
+    /**
+     * Upper-case letters only, accents removed ("Ben-Yahia" and "ben yahia" give "BENYAHIA")
+     */
+    public static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        StringBuilder letters = new StringBuilder(stripped.length());
+        for (int i = 0; i < stripped.length(); i++) {
+            char c = Character.toUpperCase(stripped.charAt(i));
+            if (c >= 'A' && c <= 'Z') {
+                letters.append(c);
+            }
+        }
+        return letters.toString();
+    }
+
+    /**
+     * Approximation of how MySQL's accent- and case-insensitive collations
+     * compare values: case and accents ignored, trailing spaces dropped
+     * ("Ingenierie " and "INGENIERIE" give "ingenierie"). Null stays null.
+     *
+     * It is not exact: utf8mb4_0900_ai_ci expands letters such as ß (ss) and
+     * æ (ae), which this key keeps as they are, and it is NO PAD, so trailing
+     * spaces do count there while *_general_ci ignores them. Code that must
+     * never treat equal values as different uses looseKey instead.
+     */
+    public static String collationKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        int end = stripped.length();
+        while (end > 0 && stripped.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return stripped.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Key that is never stricter than a MySQL collation: values the database
+     * considers equal always get the same key, and a substring of a value
+     * gets a substring of its key. Letters and digits only (compatibility
+     * forms and accents folded, sharp s and ligatures expanded), lower-cased,
+     * and runs of the same character collapsed (the sharp s equals "ss" under
+     * one collation and "s" under another).
+     * Much coarser than the database, so only fit for deciding what a write
+     * may have changed. Null stays null.
+     */
+    public static String looseKey(String value) {
+        if (value == null) {
+            return null;
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(value, Normalizer.Form.NFKD)).replaceAll("");
+        StringBuilder key = new StringBuilder(folded.length());
+        for (int i = 0; i < folded.length(); i++) {
+            char c = Character.toLowerCase(folded.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                appendCollapsed(key, expansion(c));
+            }
+        }
+        return key.toString();
+    }
+
+    private static String expansion(char c) {
+        switch (c) {
+            case '\u00df': return "ss"; // sharp s
+            case '\u00e6': return "ae"; // ae ligature
+            case '\u0153': return "oe"; // oe ligature
+            case '\u00f8': return "o"; // o with stroke
+            case '\u0111': return "d"; // d with stroke
+            case '\u00f0': return "d"; // eth
+            case '\u0142': return "l"; // l with stroke
+            case '\u00fe': return "th"; // thorn
+            case '\u0131': return "i";  // dotless i
+            default: return String.valueOf(c);
+        }
+    }
+
+    private static void appendCollapsed(StringBuilder key, String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (key.length() == 0 || key.charAt(key.length() - 1) != c) {
+                key.append(c);
+            }
+        }
+    }
+
+    /**
+     * American Soundex of a normalized name (first letter and three digits), "" for an empty name
+     */
+    public static String soundex(String normalized) {
+        if (normalized.isEmpty()) {
+            return "";
+        }
+        char[] code = {normalized.charAt(0), '0', '0', '0'};
+        int length = 1;
+        char last = SOUNDEX_CODES.charAt(normalized.charAt(0) - 'A');
+        for (int i = 1; i < normalized.length() && length < code.length; i++) {
+            char digit = SOUNDEX_CODES.charAt(normalized.charAt(i) - 'A');
+            if (digit == '-') {
+                continue; // H and W do not separate equal codes
+            }
+            if (digit != '0' && digit != last) {
+                code[length++] = digit;
+            }
+            last = digit;
+        }
+        return new String(code);
+    }
+
+    /**
+     * Blocking key: the Soundex codes of nom and prenom (in sorted order, so a
+     * swapped nom and prenom land in the same block) plus the departement's
+     * collationKey, which keeps digits and non-Latin letters ("Site 1" and
+     * "Site 2" are different blocks, and no departement differs from "").
+     * A name without Latin letters is kept as is, Soundex cannot encode it.
+     */
+    public static String blockingKey(String nom, String prenom, String departement) {
+        String[] codes = {phoneticCode(nom), phoneticCode(prenom)};
+        Arrays.sort(codes);
+        return codes[0] + ":" + codes[1] + "|" + (departement == null ? "" : "=" + collationKey(departement));
+    }
+
+    /**
+     * Form of a name used for comparison: normalized, or trimmed and lower-cased
+     * when it has no Latin letters
+     */
+    public static String matchingForm(String name) {
+        String normalized = normalize(name);
+        if (normalized.isEmpty() && name != null) {
+            return name.trim().toLowerCase();
+        }
+        return normalized;
+    }
+
+    private static String phoneticCode(String name) {
+        String normalized = normalize(name);
+        return normalized.isEmpty() ? "=" + matchingForm(name) : soundex(normalized);
+    }
+
+    /**
+     * Jaro-Winkler similarity between 0 (nothing in common) and 1 (equal)
+     */
+    public static double jaroWinkler(String a, String b) {
+        if (a.equals(b)) {
+            return 1.0;
+        }
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0.0;
+        }
+        int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] matchedA = new boolean[a.length()];
+        boolean[] matchedB = new boolean[b.length()];
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++) {
+            int from = Math.max(0, i - window);
+            int to = Math.min(b.length() - 1, i + window);
+            for (int j = from; j <= to; j++) {
+                if (!matchedB[j] && a.charAt(i) == b.charAt(j)) {
+                    matchedA[i] = true;
+                    matchedB[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0.0;
+        }
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++) {
+            if (matchedA[i]) {
+                while (!matchedB[j]) {
+                    j++;
+                }
+                if (a.charAt(i) != b.charAt(j)) {
+                    transpositions++;
+                }
+                j++;
+            }
+        }
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3.0;
+        int prefix = 0;
+        while (prefix < 4 && prefix < a.length() && prefix < b.length() && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1.0 - jaro);
+    }
+
+    /**
+     * Similarity of two persons' names in matching form: mean Jaro-Winkler of nom
+     * and prenom, also tried with one person's nom and prenom swapped,
+     * whichever is higher
+     */
+    public static double nameSimilarity(String nomA, String prenomA, String nomB, String prenomB) {
+        double straight = (jaroWinkler(nomA, nomB) + jaroWinkler(prenomA, prenomB)) / 2;
+        double swapped = (jaroWinkler(nomA, prenomB) + jaroWinkler(prenomA, nomB)) / 2;
+        return Math.max(straight, swapped);
+    }
+}
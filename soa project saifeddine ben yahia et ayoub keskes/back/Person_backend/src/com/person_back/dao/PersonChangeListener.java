@@ -0,0 +1,16 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+
+/**
+ * Notified by PersonDAO after a write has been committed.
+ * Persons passed in are detached copies and must not be modified.
+ */
+public interface PersonChangeListener {
+
+    void onCreated(Person person);
+
+    void onUpdated(Person before, Person after);
+
+    void onDeleted(Person person);
+}
@@ -0,0 +1,312 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import com.person_back.model.Person;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory person counts (total and per department), so /persons/count does
+ * not scan the table on every call.
+ *
+ * Counters are seeded from the warmed-up PersonDataset (or from one GROUP BY
+ * query when it is not loaded), adjusted by PersonDAO change events after each
+ * commit, and periodically reconciled against the database.
+ * Any difference found by a reconciliation is reported as drift.
+ *
+ * Departments are counted under NameMatching.collationKey, the way MySQL
+ * groups and compares them: "IT", "it" and "It " are one department.
+ * Persons without a department have a counter of their own (the null key).
+ */
+public class PersonCounters implements PersonChangeListener {
+
+    private static final Logger LOGGER = Logger.getLogger(PersonCounters.class.getName());
+
+    private static final PersonCounters INSTANCE = new PersonCounters();
+
+    // Optimistic seeding attempts before seeding with writes racing it
+    private static final int SEED_ATTEMPTS = 3;
+
+    private final long writeWaitMillis;
+    private final AtomicLong total = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> byDepartement = new ConcurrentHashMap<>();
+    private final AtomicLong withoutDepartement = new AtomicLong();
+    // Bumped by every counter change, under eventLock with the change
+    private final Object eventLock = new Object();
+    private long writeVersion;
+    // writeVersion of the last change of each department key (null key included), under eventLock
+    private final Map<String, Long> changedAt = new HashMap<>();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong skippedReconciliations = new AtomicLong();
+    private volatile int lastDeferredDepartements;
+    private final AtomicLong cumulativeDrift = new AtomicLong();
+    private volatile long lastDrift;
+    private volatile long lastReconciledAt;
+    private volatile boolean seeded;
+    private ScheduledExecutorService reconciler;
+
+    public static PersonCounters getInstance() {
+        return INSTANCE;
+    }
+
+    private PersonCounters() {
+        this.writeWaitMillis = AppSettings.getLong("person.counters.writeWaitMillis", 5000);
+    }
+
+    /**
+     * Seed the counters and schedule background reconciliation
+     */
+    public synchronized void start() {
+        if (reconciler != null) {
+            return;
+        }
+        PersonDAO.addChangeListener(this);
+        try {
+            ensureSeeded();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not seed person counters, will retry on first use", e);
+        }
+        long interval = AppSettings.getLong("person.counters.reconcileMillis", 60000);
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "person-counters-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Person counters reconciliation failed", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop background reconciliation
+     */
+    public synchronized void stop() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+            reconciler = null;
+        }
+        PersonDAO.removeChangeListener(this);
+    }
+
+    /**
+     * Total number of persons
+     */
+    public long count() {
+        ensureSeeded();
+        return total.get();
+    }
+
+    /**
+     * Number of persons in a department
+     */
+    public long countByDepartement(String departement) {
+        ensureSeeded();
+        AtomicLong counter = byDepartement.get(NameMatching.collationKey(departement));
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Seed on first use if startup seeding did not happen (e.g. database was down).
+     *
+     * Change events are applied from start() on, so the counts are only
+     * installed if no event changed a counter while they were read (the
+     * counts may or may not include that write). After SEED_ATTEMPTS rounds
+     * with racing writes they are installed anyway; reconcile then corrects
+     * the departments those writes touched once they are quiet.
+     */
+    private void ensureSeeded() {
+        if (seeded) {
+            return;
+        }
+        synchronized (this) {
+            for (int attempt = 1; !seeded; attempt++) {
+                long version = currentVersion();
+                Map<String, Long> counts = seedCounts();
+                boolean settled = awaitWritesInFlight();
+                synchronized (eventLock) {
+                    if (settled && version == writeVersion || attempt == SEED_ATTEMPTS) {
+                        byDepartement.clear();
+                        long sum = 0;
+                        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                            sum += entry.getValue();
+                            if (entry.getKey() != null) {
+                                byDepartement.put(entry.getKey(), new AtomicLong(entry.getValue()));
+                            }
+                        }
+                        withoutDepartement.set(counts.getOrDefault(null, 0L));
+                        total.set(sum);
+                        seeded = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private long currentVersion() {
+        synchronized (eventLock) {
+            return writeVersion;
+        }
+    }
+
+    /**
+     * Wait for the writes already started to fire their events, false on timeout or interrupt
+     */
+    private boolean awaitWritesInFlight() {
+        try {
+            return PersonDAO.awaitWritesInFlight(writeWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Counts from the warmed-up dataset when available, otherwise from the database
+     */
+    private Map<String, Long> seedCounts() {
+        PersonDataset dataset = PersonDataset.getInstance();
+        if (!dataset.isLoaded()) {
+            return countInDatabase();
+        }
+        Map<String, Long> counts = new HashMap<>();
+        for (Person person : dataset.getPersons()) {
+            counts.merge(NameMatching.collationKey(person.getDepartement()), 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Counts per department key; each shard groups on its own, so spellings
+     * it returned separately are summed under one key
+     */
+    private static Map<String, Long> countInDatabase() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, Long> entry : new PersonDAO().countGroupedByDepartement().entrySet()) {
+            counts.merge(NameMatching.collationKey(entry.getKey()), entry.getValue(), Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Compare the counters with the database and correct them.
+     *
+     * A department whose counter changed while the query ran is left for the
+     * next round, since the query may or may not have seen that write; the
+     * others are corrected, and the total by the same amounts. Before
+     * checking, it waits for the writes already started to fire their
+     * events: a write committed before the query but notified after the
+     * check would otherwise be counted twice.
+     */
+    public void reconcile() {
+        if (!seeded) {
+            ensureSeeded();
+            return;
+        }
+        long version = currentVersion();
+
+        Map<String, Long> counts = countInDatabase();
+
+        if (!awaitWritesInFlight()) {
+            skippedReconciliations.incrementAndGet();
+            return;
+        }
+
+        long drift = 0;
+        int deferred = 0;
+        synchronized (eventLock) {
+            Set<String> departements = new HashSet<>(byDepartement.keySet());
+            departements.addAll(counts.keySet());
+            departements.add(null);
+            for (String departement : departements) {
+                if (changedAt.getOrDefault(departement, 0L) > version) {
+                    deferred++;
+                    continue;
+                }
+                long actual = counts.getOrDefault(departement, 0L);
+                long before = counter(departement).getAndSet(actual);
+                total.addAndGet(actual - before);
+                drift += Math.abs(before - actual);
+            }
+            changedAt.values().removeIf(changed -> changed <= version);
+        }
+
+        lastDeferredDepartements = deferred;
+        lastDrift = drift;
+        cumulativeDrift.addAndGet(drift);
+        reconciliations.incrementAndGet();
+        lastReconciledAt = System.currentTimeMillis();
+        if (drift > 0) {
+            LOGGER.warning("Person counters drifted by " + drift + " from the database, corrected");
+        }
+    }
+
+    /**
+     * Counter values and reconciliation metrics
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("seeded", seeded);
+        stats.put("total", total.get());
+        Map<String, Long> departements = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : byDepartement.entrySet()) {
+            if (entry.getValue().get() != 0) {
+                departements.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        stats.put("departements", departements);
+        stats.put("reconciliations", reconciliations.get());
+        stats.put("skippedReconciliations", skippedReconciliations.get());
+        stats.put("lastDeferredDepartements", lastDeferredDepartements);
+        stats.put("lastDrift", lastDrift);
+        stats.put("cumulativeDrift", cumulativeDrift.get());
+        stats.put("lastReconciledAt", lastReconciledAt);
+        return stats;
+    }
+
+    @Override
+    public void onCreated(Person person) {
+        synchronized (eventLock) {
+            total.incrementAndGet();
+            adjust(person.getDepartement(), 1);
+        }
+    }
+
+    @Override
+    public void onUpdated(Person before, Person after) {
+        synchronized (eventLock) {
+            if (!Objects.equals(NameMatching.collationKey(before.getDepartement()),
+                    NameMatching.collationKey(after.getDepartement()))) {
+                adjust(before.getDepartement(), -1);
+                adjust(after.getDepartement(), 1);
+            }
+        }
+    }
+
+    @Override
+    public void onDeleted(Person person) {
+        synchronized (eventLock) {
+            total.decrementAndGet();
+            adjust(person.getDepartement(), -1);
+        }
+    }
+
+    /**
+     * Change a department counter, under eventLock
+     */
+    private void adjust(String departement, long delta) {
+        String key = NameMatching.collationKey(departement);
+        changedAt.put(key, ++writeVersion);
+        counter(key).addAndGet(delta);
+    }
+
+    private AtomicLong counter(String key) {
+        return key == null ? withoutDepartement : byDepartement.computeIfAbsent(key, k -> new AtomicLong());
+    }
+}
@@ -1,65 +1,400 @@
 package com.person_back.dao;
 
+import com.person_back.config.AppSettings;
 import com.person_back.model.Person;
 import javax.persistence.*;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class PersonDAO {
-    
-    private EntityManagerFactory emf = Persistence.createEntityManagerFactory("personPU");
+
+    private static final Logger LOGGER = Logger.getLogger(PersonDAO.class.getName());
+
+    private static final List<PersonChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private static final SingleFlight singleFlight = new SingleFlight(
+        AppSettings.getBoolean("person.singleFlight.enabled", true),
+        AppSettings.getLong("person.singleFlight.timeoutMillis", 30000)
+    );
+    private static final ConcurrentMap<String, String> filterQueries = new ConcurrentHashMap<>();
+    private static final Comparator<Person> NEWEST_FIRST = Comparator.comparing(Person::getId, Comparator.reverseOrder());
+    // Writes between their start and their change events, by ticket (see awaitWritesInFlight)
+    private static final ConcurrentSkipListSet<Long> writesInFlight = new ConcurrentSkipListSet<>();
+    private static long writeTickets;
+    private static GroupCommitWriter groupCommitWriter;
+    private static ShardedPersonStore shardedStore;
+
+    private final DataSourceRouter router = DataSourceRouter.getInstance();
+    private final QueryProfiler profiler = QueryProfiler.getInstance();
+    private final ShardedPersonStore shards = shardedStore();
+    private EntityManagerFactory emf = router.forWrite();
+
+    /**
+     * Sharded store, or null when -Dperson.shard.urls is not set
+     */
+    private static synchronized ShardedPersonStore shardedStore() {
+        String urls = AppSettings.getString("person.shard.urls", "");
+        if (shardedStore == null && !urls.isEmpty()) {
+            shardedStore = new ShardedPersonStore(Arrays.asList(urls.split("\\s*,\\s*")));
+        }
+        return shardedStore;
+    }
+
+    /**
+     * Group commit writer, or null when -Dperson.groupCommit.enabled is not set
+     * (not used with sharding, where creates go through the routing index)
+     */
+    private static synchronized GroupCommitWriter groupCommitWriter() {
+        if (groupCommitWriter == null && AppSettings.getBoolean("person.groupCommit.enabled", false)
+                && shardedStore() == null) {
+            DataSourceRouter router = DataSourceRouter.getInstance();
+            groupCommitWriter = new GroupCommitWriter(
+                router.forWrite(),
+                AppSettings.getInt("person.groupCommit.maxBatchSize", 64),
+                AppSettings.getLong("person.groupCommit.maxDelayMillis", 5),
+                AppSettings.getLong("person.groupCommit.timeoutMillis", 10000),
+                AppSettings.getInt("person.groupCommit.queueCapacity", 4096),
+                persons -> {
+                    for (Person person : persons) {
+                        router.markWritten(person.getId());
+                        fireCreated(new Person(person));
+                    }
+                }
+            );
+        }
+        return groupCommitWriter;
+    }
+
+    /**
+     * Register a listener notified after each committed create, update or delete
+     */
+    public static void addChangeListener(PersonChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Unregister a change listener
+     */
+    public static void removeChangeListener(PersonChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    private static void fireCreated(Person person) {
+        singleFlight.forgetInFlight();
+        for (PersonChangeListener listener : changeListeners) {
+            try {
+                listener.onCreated(person);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Change listener failed on create", e);
+            }
+        }
+    }
+
+    private static void fireUpdated(Person before, Person after) {
+        singleFlight.forgetInFlight();
+        for (PersonChangeListener listener : changeListeners) {
+            try {
+                listener.onUpdated(before, after);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Change listener failed on update", e);
+            }
+        }
+    }
+
+    private static void fireDeleted(Person person) {
+        singleFlight.forgetInFlight();
+        for (PersonChangeListener listener : changeListeners) {
+            try {
+                listener.onDeleted(person);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Change listener failed on delete", e);
+            }
+        }
+    }
+
+    /**
+     * Wait until every write started so far has committed or failed and fired
+     * its change events (writes started later are not waited for).
+     * Returns false when that takes longer than timeoutMillis.
+     */
+    public static boolean awaitWritesInFlight(long timeoutMillis) throws InterruptedException {
+        long last;
+        synchronized (writesInFlight) {
+            last = writeTickets;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            Long oldest = writesInFlight.isEmpty() ? null : writesInFlight.first();
+            if (oldest == null || oldest > last) {
+                return true;
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static long beginWrite() {
+        synchronized (writesInFlight) {
+            long ticket = ++writeTickets;
+            writesInFlight.add(ticket);
+            return ticket;
+        }
+    }
+
+    private static void endWrite(long ticket) {
+        writesInFlight.remove(ticket);
+    }
+
+    /**
+     * Single-flight load counters (database calls saved by sharing)
+     */
+    public static Map<String, Object> getSingleFlightStats() {
+        return singleFlight.getStats();
+    }
+
+    /**
+     * Share a read between concurrent callers; callers that must read the
+     * primary (see DataSourceRouter.readsFromPrimary) never join a replica read
+     *
+     * @param id the person read, null for a read of several persons
+     */
+    private <T> T shared(String key, Long id, Supplier<T> loader) {
+        return singleFlight.execute(router.readsFromPrimary(id) ? key + "@primary" : key, loader);
+    }
+
+    /**
+     * Run a read-only operation on a replica when possible.
+     * If the replica fails, it is taken out of rotation and the read is retried on the primary.
+     */
+    private <T> T read(Function<EntityManager, T> work) {
+        return readPerson(null, work);
+    }
+
+    /**
+     * Same as read, for a read of one person that must see recent writes of it
+     */
+    private <T> T readPerson(Long id, Function<EntityManager, T> work) {
+        EntityManagerFactory source = router.forRead(id);
+        try {
+            return read(source, work);
+        } catch (PersistenceException e) {
+            if (router.isPrimary(source) || e instanceof NoResultException || e instanceof NonUniqueResultException) {
+                throw e;
+            }
+            router.markFailed(source);
+            return read(router.forWrite(), work);
+        }
+    }
+
+    private <T> T read(EntityManagerFactory source, Function<EntityManager, T> work) {
+        EntityManager em = source.createEntityManager();
+        try {
+            return work.apply(em);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Run a sorted, paginated query; with sharding, on every shard with the results merged in order
+     *
+     * @param limit -1 for no limit
+     */
+    private <T> List<T> readSorted(ShardedPersonStore.PageQuery<T> query, Comparator<? super T> order, int offset, int limit) {
+        if (shards != null) {
+            return shards.gatherSorted(query, order, offset, limit);
+        }
+        return read(em -> query.run(em, offset, limit));
+    }
+
+    /**
+     * Run a count; with sharding, on every shard and summed
+     */
+    private long readSum(Function<EntityManager, Long> count) {
+        return shards != null ? shards.sum(count) : read(count);
+    }
+
+    /**
+     * Run a sorted DISTINCT query; with sharding, on every shard and merged
+     */
+    private List<String> readUnion(Function<EntityManager, List<String>> values) {
+        return shards != null ? shards.union(values) : read(values);
+    }
+
+    private static <T> TypedQuery<T> page(TypedQuery<T> query, int firstResult, int maxResults) {
+        if (firstResult > 0) {
+            query.setFirstResult(firstResult);
+        }
+        if (maxResults >= 0) {
+            query.setMaxResults(maxResults);
+        }
+        return query;
+    }
 
     /**
      * Find all persons ordered by creation date (newest first)
      */
     public List<Person> findAll() {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("findAll", null, () -> readSorted((em, first, max) -> {
             TypedQuery<Person> query = em.createQuery(
                 "SELECT p FROM Person p ORDER BY p.id DESC", 
                 Person.class
             );
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
+            return profiler.list("PersonDAO.findAll", page(query, first, max));
+        }, NEWEST_FIRST, 0, -1));
     }
 
     /**
      * Find person by ID
      */
     public Person findById(Long id) {
-        EntityManager em = emf.createEntityManager();
-        try {
-            return em.find(Person.class, id);
-        } finally {
-            em.close();
+        Person person = shared("findById:" + id, id, () -> shards != null ? shards.findById(id) : readPerson(id, em -> profiler.time(
+            "PersonDAO.findById", Collections.singletonMap("id", id), () -> em.find(Person.class, id))));
+        // Joined callers share one loaded instance, hand each its own copy
+        return person == null ? null : new Person(person);
+    }
+
+    /**
+     * Find person by ID on the primary (before modifying it, never from a lagging replica)
+     */
+    public Person findByIdForWrite(Long id) {
+        if (shards != null) {
+            return shards.findById(id);
         }
+        return read(emf, em -> profiler.time(
+            "PersonDAO.findByIdForWrite", Collections.singletonMap("id", id), () -> em.find(Person.class, id)));
     }
 
     /**
      * Find persons by name (case-insensitive, searches name, nom, prenom)
      */
     public List<Person> findByName(String name) {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("findByName:" + name, null, () -> readSorted((em, first, max) -> {
             TypedQuery<Person> query = em.createQuery(
                 "SELECT p FROM Person p WHERE " +
                 "LOWER(p.name) LIKE LOWER(:name) OR " +
                 "LOWER(p.nom) LIKE LOWER(:name) OR " +
-                "LOWER(p.prenom) LIKE LOWER(:name)", 
+                "LOWER(p.prenom) LIKE LOWER(:name) " +
+                "ORDER BY p.id DESC", 
                 Person.class
             );
             query.setParameter("name", "%" + name + "%");
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
+            return profiler.list("PersonDAO.findByName", page(query, first, max));
+        }, NEWEST_FIRST, 0, -1));
+    }
+
+    /**
+     * Find persons by department (exact match)
+     */
+    public List<Person> findByDepartement(String departement) {
+        return shared("findByDepartement:" + departement, null, () -> readSorted((em, first, max) -> {
+            TypedQuery<Person> query = em.createQuery(
+                "SELECT p FROM Person p WHERE p.departement = :dept ORDER BY p.id DESC", 
+                Person.class
+            );
+            query.setParameter("dept", departement);
+            return profiler.list("PersonDAO.findByDepartement", page(query, first, max));
+        }, NEWEST_FIRST, 0, -1));
+    }
+
+    /**
+     * Find persons matching a combined filter, sorted and limited by the database
+     */
+    public List<Person> findByFilter(PersonFilter filter) {
+        int offset = filter.getOffset() == null ? 0 : filter.getOffset();
+        int limit = filter.getLimit() == null ? -1 : filter.getLimit();
+        return shared("findByFilter:" + filter.getCacheKey(), null, () -> readSorted((em, first, max) -> {
+            TypedQuery<Person> query = em.createQuery(filterQuery(em, filter), Person.class);
+            if (filter.getQ() != null) {
+                query.setParameter("q", "%" + filter.getQ() + "%");
+            }
+            if (filter.getDepartement() != null) {
+                query.setParameter("departement", filter.getDepartement());
+            }
+            if (filter.getPoste() != null) {
+                query.setParameter("poste", filter.getPoste());
+            }
+            if (filter.getMinAge() != null) {
+                query.setParameter("minAge", filter.getMinAge());
+            }
+            if (filter.getMaxAge() != null) {
+                query.setParameter("maxAge", filter.getMaxAge());
+            }
+            return profiler.list("PersonDAO.findByFilter[" + filter.getShapeKey() + "]", page(query, first, max));
+        }, filter.getComparator(), offset, limit));
+    }
+
+    /**
+     * JPQL of the filter's shape, built once with the Criteria API and then
+     * reused for every filter with the same active predicates and sort
+     * (Hibernate also caches the query plan by this string)
+     */
+    private String filterQuery(EntityManager em, PersonFilter filter) {
+        return filterQueries.computeIfAbsent(filter.getShapeKey(), shape -> {
+            CriteriaBuilder cb = em.getCriteriaBuilder();
+            CriteriaQuery<Person> criteria = cb.createQuery(Person.class);
+            Root<Person> p = criteria.from(Person.class);
+
+            List<Predicate> predicates = new ArrayList<>();
+            if (filter.getQ() != null) {
+                ParameterExpression<String> q = cb.parameter(String.class, "q");
+                predicates.add(cb.or(
+                    cb.like(cb.lower(p.get("name")), q),
+                    cb.like(cb.lower(p.get("nom")), q),
+                    cb.like(cb.lower(p.get("prenom")), q)
+                ));
+            }
+            if (filter.getDepartement() != null) {
+                predicates.add(cb.equal(p.get("departement"), cb.parameter(String.class, "departement")));
+            }
+            if (filter.getPoste() != null) {
+                predicates.add(cb.equal(p.get("poste"), cb.parameter(String.class, "poste")));
+            }
+            if (filter.getMinAge() != null) {
+                predicates.add(cb.ge(p.get("age"), cb.parameter(Integer.class, "minAge")));
+            }
+            if (filter.getMaxAge() != null) {
+                predicates.add(cb.le(p.get("age"), cb.parameter(Integer.class, "maxAge")));
+            }
+            criteria.select(p).where(predicates.toArray(new Predicate[0]));
+
+            List<Order> orders = new ArrayList<>();
+            Path<Object> sortPath = p.get(filter.getSortField());
+            orders.add(filter.isSortDescending() ? cb.desc(sortPath) : cb.asc(sortPath));
+            if (!"id".equals(filter.getSortField())) {
+                orders.add(cb.desc(p.get("id")));
+            }
+            criteria.orderBy(orders);
+
+            return em.createQuery(criteria).unwrap(org.hibernate.query.Query.class).getQueryString();
+        });
     }
 
     /**
      * Check if email exists (for validation)
      */
     public boolean existsByEmail(String email) {
+        if (shards != null) {
+            return shards.existsByEmail(email, null);
+        }
         EntityManager em = emf.createEntityManager();
         try {
             TypedQuery<Long> query = em.createQuery(
@@ -67,7 +402,7 @@ public class PersonDAO {
                 Long.class
             );
             query.setParameter("email", email);
-            Long count = query.getSingleResult();
+            Long count = profiler.single("PersonDAO.existsByEmail", query);
             return count > 0;
         } finally {
             em.close();
@@ -78,6 +413,9 @@ public class PersonDAO {
      * Check if email exists for a different person (for update validation)
      */
     public boolean existsByEmailExcludingId(String email, Long excludeId) {
+        if (shards != null) {
+            return shards.existsByEmail(email, excludeId);
+        }
         EntityManager em = emf.createEntityManager();
         try {
             TypedQuery<Long> query = em.createQuery(
@@ -86,7 +424,7 @@ public class PersonDAO {
             );
             query.setParameter("email", email);
             query.setParameter("id", excludeId);
-            Long count = query.getSingleResult();
+            Long count = profiler.single("PersonDAO.existsByEmailExcludingId", query);
             return count > 0;
         } finally {
             em.close();
@@ -97,18 +435,62 @@ public class PersonDAO {
      * Create new person
      */
     public void create(Person person) {
-        EntityManager em = emf.createEntityManager();
+        long ticket = beginWrite();
         try {
-            em.getTransaction().begin();
-            em.persist(person);
-            em.getTransaction().commit();
-        } catch (Exception e) {
-            if (em.getTransaction().isActive()) {
-                em.getTransaction().rollback();
-            }
-            throw new RuntimeException("Error creating person: " + e.getMessage(), e);
+            if (shards != null) {
+                try {
+                    shards.create(person);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error creating person: " + e.getMessage(), e);
+                }
+                fireCreated(new Person(person));
+                return;
+            }
+            EntityManager em = emf.createEntityManager();
+            try {
+                em.getTransaction().begin();
+                em.persist(person);
+                em.getTransaction().commit();
+                router.markWrite(person.getId());
+            } catch (Exception e) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                throw new RuntimeException("Error creating person: " + e.getMessage(), e);
+            } finally {
+                em.close();
+            }
+            fireCreated(new Person(person));
         } finally {
-            em.close();
+            endWrite(ticket);
+        }
+    }
+
+    /**
+     * Create new person unless its email is already used.
+     * With group commit enabled, concurrent calls share one email check and one commit.
+     * With sharding, the routing index checks and reserves the email in one step.
+     */
+    public void createIfEmailAvailable(Person person) {
+        long ticket = beginWrite();
+        try {
+            if (shards != null) {
+                shards.create(person);
+                fireCreated(new Person(person));
+                return;
+            }
+            GroupCommitWriter writer = groupCommitWriter();
+            if (writer != null) {
+                writer.submit(person);
+                router.markWrite(person.getId());
+                return;
+            }
+            if (existsByEmail(person.getEmail())) {
+                throw new DuplicateEmailException(person.getEmail());
+            }
+            create(person);
+        } finally {
+            endWrite(ticket);
         }
     }
 
@@ -116,18 +498,50 @@ public class PersonDAO {
      * Update existing person
      */
     public void update(Person person) {
-        EntityManager em = emf.createEntityManager();
+        long ticket = beginWrite();
         try {
-            em.getTransaction().begin();
-            em.merge(person);
-            em.getTransaction().commit();
-        } catch (Exception e) {
-            if (em.getTransaction().isActive()) {
-                em.getTransaction().rollback();
-            }
-            throw new RuntimeException("Error updating person: " + e.getMessage(), e);
+            if (shards != null) {
+                Person before;
+                try {
+                    before = shards.update(person);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error updating person: " + e.getMessage(), e);
+                }
+                if (before == null) {
+                    throw new RuntimeException("Error updating person: person " + person.getId() + " does not exist");
+                }
+                fireUpdated(before, new Person(person));
+                return;
+            }
+            EntityManager em = emf.createEntityManager();
+            Person before = null;
+            Person merged;
+            try {
+                em.getTransaction().begin();
+                Person current = em.find(Person.class, person.getId());
+                if (current != null) {
+                    before = new Person(current);
+                }
+                // @PreUpdate touches the managed copy, not the detached person
+                merged = em.merge(person);
+                em.getTransaction().commit();
+                router.markWrite(person.getId());
+            } catch (Exception e) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                throw new RuntimeException("Error updating person: " + e.getMessage(), e);
+            } finally {
+                em.close();
+            }
+            person.setLastModified(merged.getLastModified());
+            if (before != null) {
+                fireUpdated(before, new Person(merged));
+            } else {
+                fireCreated(new Person(merged));
+            }
         } finally {
-            em.close();
+            endWrite(ticket);
         }
     }
 
@@ -135,21 +549,44 @@ public class PersonDAO {
      * Delete person by ID
      */
     public void delete(Long id) {
-        EntityManager em = emf.createEntityManager();
+        long ticket = beginWrite();
         try {
-            em.getTransaction().begin();
-            Person person = em.find(Person.class, id);
-            if (person != null) {
-                em.remove(person);
+            if (shards != null) {
+                Person removed;
+                try {
+                    removed = shards.delete(id);
+                } catch (Exception e) {
+                    throw new RuntimeException("Error deleting person: " + e.getMessage(), e);
+                }
+                if (removed != null) {
+                    fireDeleted(removed);
+                }
+                return;
+            }
+            EntityManager em = emf.createEntityManager();
+            Person removed = null;
+            try {
+                em.getTransaction().begin();
+                Person person = em.find(Person.class, id);
+                if (person != null) {
+                    removed = new Person(person);
+                    em.remove(person);
+                }
+                em.getTransaction().commit();
+                router.markWrite(id);
+            } catch (Exception e) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                throw new RuntimeException("Error deleting person: " + e.getMessage(), e);
+            } finally {
+                em.close();
             }
-            em.getTransaction().commit();
-        } catch (Exception e) {
-            if (em.getTransaction().isActive()) {
-                em.getTransaction().rollback();
+            if (removed != null) {
+                fireDeleted(removed);
             }
-            throw new RuntimeException("Error deleting person: " + e.getMessage(), e);
         } finally {
-            em.close();
+            endWrite(ticket);
         }
     }
 
@@ -157,91 +594,192 @@ public class PersonDAO {
      * Count total persons
      */
     public long count() {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("count", null, () -> readSum(em -> {
             TypedQuery<Long> query = em.createQuery(
                 "SELECT COUNT(p) FROM Person p", 
                 Long.class
             );
-            return query.getSingleResult();
-        } finally {
-            em.close();
-        }
+            return profiler.single("PersonDAO.count", query);
+        }));
     }
 
     /**
      * Count persons by department
      */
     public long countByDepartement(String departement) {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("countByDepartement:" + departement, null, () -> readSum(em -> {
             TypedQuery<Long> query = em.createQuery(
                 "SELECT COUNT(p) FROM Person p WHERE p.departement = :dept", 
                 Long.class
             );
             query.setParameter("dept", departement);
-            return query.getSingleResult();
-        } finally {
-            em.close();
+            return profiler.single("PersonDAO.countByDepartement", query);
+        }));
+    }
+
+    /**
+     * Count persons per department on the primary (null key for persons without one)
+     */
+    public Map<String, Long> countGroupedByDepartement() {
+        Function<EntityManager, List<Object[]>> work = em -> {
+            TypedQuery<Object[]> query = em.createQuery(
+                "SELECT p.departement, COUNT(p) FROM Person p GROUP BY p.departement", 
+                Object[].class
+            );
+            return profiler.list("PersonDAO.countGroupedByDepartement", query);
+        };
+        List<List<Object[]>> parts = shards != null
+            ? shards.gather(work)
+            : Collections.singletonList(read(emf, work));
+        Map<String, Long> counts = new HashMap<>();
+        for (List<Object[]> rows : parts) {
+            for (Object[] row : rows) {
+                counts.merge((String) row[0], (Long) row[1], Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Persons created or modified at or after a time (epoch millis), read on the primary.
+     * A null time loads every person, including rows not written since last_modified was added.
+     */
+    public List<Person> findModifiedSince(Long since) {
+        Function<EntityManager, List<Person>> work = em -> {
+            TypedQuery<Person> query;
+            if (since == null) {
+                query = em.createQuery("SELECT p FROM Person p", Person.class);
+            } else {
+                query = em.createQuery(
+                    "SELECT p FROM Person p WHERE p.lastModified >= :since", 
+                    Person.class
+                );
+                query.setParameter("since", since);
+            }
+            return profiler.list("PersonDAO.findModifiedSince", query);
+        };
+        if (shards == null) {
+            return read(emf, work);
+        }
+        List<Person> persons = new ArrayList<>();
+        for (List<Person> part : shards.gather(work)) {
+            persons.addAll(part);
+        }
+        return persons;
+    }
+
+    /**
+     * Count and sum of ids per range of rangeSize consecutive ids, read on the primary.
+     * Compared with the same figures computed in memory, they show which ranges lost rows.
+     *
+     * @return range number (id / rangeSize) to {count, sum of ids}
+     */
+    public Map<Long, long[]> checksumIdRanges(int rangeSize) {
+        Function<EntityManager, List<Object[]>> work = em -> {
+            // The size is inlined: MySQL's ONLY_FULL_GROUP_BY does not match two bound parameters
+            String range = "FUNCTION('FLOOR', p.id / " + rangeSize + ")";
+            TypedQuery<Object[]> query = em.createQuery(
+                "SELECT " + range + ", COUNT(p), SUM(p.id) FROM Person p GROUP BY " + range, 
+                Object[].class
+            );
+            return profiler.list("PersonDAO.checksumIdRanges", query);
+        };
+        List<List<Object[]>> parts = shards != null
+            ? shards.gather(work)
+            : Collections.singletonList(read(emf, work));
+        Map<Long, long[]> ranges = new HashMap<>();
+        for (List<Object[]> rows : parts) {
+            for (Object[] row : rows) {
+                long[] checksum = ranges.computeIfAbsent(((Number) row[0]).longValue(), k -> new long[2]);
+                checksum[0] += ((Number) row[1]).longValue();
+                checksum[1] += ((Number) row[2]).longValue();
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Ids between two bounds (inclusive), read on the primary
+     */
+    public Set<Long> findIdsBetween(long from, long to) {
+        Function<EntityManager, List<Long>> work = em -> {
+            TypedQuery<Long> query = em.createQuery(
+                "SELECT p.id FROM Person p WHERE p.id BETWEEN :from AND :to", 
+                Long.class
+            );
+            query.setParameter("from", from);
+            query.setParameter("to", to);
+            return profiler.list("PersonDAO.findIdsBetween", query);
+        };
+        List<List<Long>> parts = shards != null
+            ? shards.gather(work)
+            : Collections.singletonList(read(emf, work));
+        Set<Long> ids = new HashSet<>();
+        for (List<Long> part : parts) {
+            ids.addAll(part);
         }
+        return ids;
     }
 
     /**
      * Get all unique departments
      */
     public List<String> getAllDepartements() {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("getAllDepartements", null, () -> readUnion(em -> {
             TypedQuery<String> query = em.createQuery(
                 "SELECT DISTINCT p.departement FROM Person p WHERE p.departement IS NOT NULL ORDER BY p.departement", 
                 String.class
             );
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
+            return profiler.list("PersonDAO.getAllDepartements", query);
+        }));
     }
 
     /**
      * Get all unique postes
      */
     public List<String> getAllPostes() {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("getAllPostes", null, () -> readUnion(em -> {
             TypedQuery<String> query = em.createQuery(
                 "SELECT DISTINCT p.poste FROM Person p WHERE p.poste IS NOT NULL ORDER BY p.poste", 
                 String.class
             );
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
+            return profiler.list("PersonDAO.getAllPostes", query);
+        }));
     }
 
     /**
      * Find persons with pagination
      */
     public List<Person> findWithPagination(int page, int pageSize) {
-        EntityManager em = emf.createEntityManager();
-        try {
+        return shared("findWithPagination:" + page + ":" + pageSize, null, () -> readSorted((em, first, max) -> {
             TypedQuery<Person> query = em.createQuery(
                 "SELECT p FROM Person p ORDER BY p.id DESC", 
                 Person.class
             );
-            query.setFirstResult((page - 1) * pageSize);
-            query.setMaxResults(pageSize);
-            return query.getResultList();
-        } finally {
-            em.close();
-        }
+            return profiler.list("PersonDAO.findWithPagination", page(query, first, max));
+        }, NEWEST_FIRST, (page - 1) * pageSize, pageSize));
     }
 
     /**
      * Close EntityManagerFactory (call when shutting down application)
      */
     public void close() {
-        if (emf != null && emf.isOpen()) {
-            emf.close();
+        shutdown();
+    }
+
+    /**
+     * Flush pending group commits and close the shared EntityManagerFactories
+     */
+    public static synchronized void shutdown() {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.shutdown();
+            groupCommitWriter = null;
+        }
+        if (shardedStore != null) {
+            shardedStore.close();
+            shardedStore = null;
         }
+        QueryProfiler.shutdownInstance();
+        DataSourceRouter.shutdownInstance();
     }
 }
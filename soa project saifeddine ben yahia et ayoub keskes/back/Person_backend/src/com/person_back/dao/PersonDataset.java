@@ -0,0 +1,271 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import com.person_back.model.Person;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-process copy of the person dataset, used to warm up the other in-memory
+ * structures without scanning the table on every deploy.
+ *
+ * On start the dataset is loaded from the memory-mapped snapshot, then caught
+ * up with the rows modified since the snapshot's high-water mark (minus
+ * person.snapshot.catchUpMarginMillis, for transactions that committed late)
+ * and with deletions found by comparing per-range id checksums. Without a usable snapshot it is
+ * loaded from the database. PersonDAO change events keep it current, and a
+ * new snapshot is written every person.snapshot.intervalMillis and on
+ * shutdown.
+ */
+public class PersonDataset implements PersonChangeListener {
+
+    private static final Logger LOGGER = Logger.getLogger(PersonDataset.class.getName());
+
+    private static final PersonDataset INSTANCE = new PersonDataset();
+
+    // Ids per range when looking for rows deleted since the snapshot
+    private static final int ID_RANGE_SIZE = 4096;
+
+    private final boolean enabled;
+    private final Path path;
+    private final long intervalMillis;
+    private final long catchUpMarginMillis;
+    private final ConcurrentMap<Long, Person> persons = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile boolean loaded;
+    private volatile long changesAtLastWrite = -1;
+    private ScheduledExecutorService writer;
+
+    private final Map<String, Object> lastWarmUp = new ConcurrentHashMap<>();
+    private final AtomicLong snapshotsWritten = new AtomicLong();
+    private volatile long lastWriteMillis;
+    private volatile long lastWriteBytes;
+
+    public static PersonDataset getInstance() {
+        return INSTANCE;
+    }
+
+    private PersonDataset() {
+        this.enabled = AppSettings.getBoolean("person.snapshot.enabled", false);
+        this.path = Paths.get(AppSettings.getString("person.snapshot.path",
+            Paths.get(System.getProperty("java.io.tmpdir"), "person-snapshot.bin").toString()));
+        this.intervalMillis = AppSettings.getLong("person.snapshot.intervalMillis", 300000);
+        this.catchUpMarginMillis = AppSettings.getLong("person.snapshot.catchUpMarginMillis", 60000);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * True once the dataset has been loaded and is kept current
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Current persons (copies are not made, callers must not modify them)
+     */
+    public Collection<Person> getPersons() {
+        return Collections.unmodifiableCollection(persons.values());
+    }
+
+    /**
+     * Load the dataset and schedule periodic snapshots; does nothing unless
+     * -Dperson.snapshot.enabled=true
+     */
+    public synchronized void start() {
+        if (!enabled || writer != null) {
+            return;
+        }
+        // Listen first so writes committed while loading are not lost
+        PersonDAO.addChangeListener(this);
+        try {
+            warmUp();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not load the person dataset, in-memory structures will use the database", e);
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "person-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                if (!loaded) {
+                    warmUp();
+                } else if (changes.get() != changesAtLastWrite) {
+                    writeSnapshot();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Person snapshot failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop periodic snapshots and write a final one (clean shutdown)
+     */
+    public synchronized void stop() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdownNow();
+        writer = null;
+        PersonDAO.removeChangeListener(this);
+        if (loaded) {
+            try {
+                writeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not write the person snapshot on shutdown", e);
+            }
+        }
+    }
+
+    private synchronized void warmUp() {
+        long start = System.nanoTime();
+        Map<String, Object> report = new LinkedHashMap<>();
+        PersonSnapshot snapshot = null;
+        try {
+            snapshot = PersonSnapshot.read(path);
+        } catch (NoSuchFileException e) {
+            report.put("snapshot", "missing");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Ignoring unusable person snapshot " + path, e);
+            report.put("snapshot", "unusable: " + e.getMessage());
+        }
+        long snapshotLoaded = System.nanoTime();
+
+        PersonDAO dao = new PersonDAO();
+        if (snapshot != null) {
+            for (Person person : snapshot.getPersons()) {
+                apply(person);
+            }
+            Long since = snapshot.getHighWaterMark() == Long.MIN_VALUE
+                ? null
+                : snapshot.getHighWaterMark() - catchUpMarginMillis;
+            List<Person> modified = dao.findModifiedSince(since);
+            for (Person person : modified) {
+                apply(person);
+            }
+            int removed = removeDeleted(dao, System.currentTimeMillis());
+            report.put("snapshot", path.toString());
+            report.put("snapshotRows", snapshot.getPersons().size());
+            report.put("snapshotWrittenAt", snapshot.getWrittenAt());
+            report.put("highWaterMark", snapshot.getHighWaterMark());
+            report.put("caughtUpRows", modified.size());
+            report.put("removedRows", removed);
+        } else {
+            for (Person person : dao.findModifiedSince(null)) {
+                apply(person);
+            }
+        }
+        loaded = true;
+
+        long end = System.nanoTime();
+        report.put("rows", persons.size());
+        report.put("snapshotLoadMillis", (snapshotLoaded - start) / 1e6);
+        report.put("catchUpMillis", (end - snapshotLoaded) / 1e6);
+        report.put("totalMillis", (end - start) / 1e6);
+        lastWarmUp.clear();
+        lastWarmUp.putAll(report);
+        LOGGER.log(Level.INFO, "Person dataset warmed up: {0}", report);
+    }
+
+    /**
+     * Drop the rows deleted since the snapshot. Id ranges whose count and sum
+     * of ids match the database are skipped; only the ids of the other ranges
+     * are read. Rows modified after checkedAt (created while checking) are kept.
+     */
+    private int removeDeleted(PersonDAO dao, long checkedAt) {
+        Map<Long, long[]> expected = dao.checksumIdRanges(ID_RANGE_SIZE);
+        Map<Long, long[]> actual = new HashMap<>();
+        for (Long id : persons.keySet()) {
+            long[] checksum = actual.computeIfAbsent(id / ID_RANGE_SIZE, k -> new long[2]);
+            checksum[0]++;
+            checksum[1] += id;
+        }
+        int removed = 0;
+        for (Map.Entry<Long, long[]> range : actual.entrySet()) {
+            if (Arrays.equals(range.getValue(), expected.get(range.getKey()))) {
+                continue;
+            }
+            long from = range.getKey() * ID_RANGE_SIZE;
+            Set<Long> ids = dao.findIdsBetween(from, from + ID_RANGE_SIZE - 1);
+            for (long id = from; id < from + ID_RANGE_SIZE; id++) {
+                Person person = persons.get(id);
+                if (person != null && !ids.contains(id)
+                        && (person.getLastModified() == null || person.getLastModified() < checkedAt)
+                        && persons.remove(id, person)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Write the current dataset to the snapshot file
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        long changesBefore = changes.get();
+        long start = System.nanoTime();
+        PersonSnapshot.write(path, persons.values());
+        lastWriteMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastWriteBytes = path.toFile().length();
+        snapshotsWritten.incrementAndGet();
+        changesAtLastWrite = changesBefore;
+    }
+
+    /**
+     * Keep the newer of two versions of a row (a change event may arrive before an older read)
+     */
+    private void apply(Person person) {
+        persons.merge(person.getId(), person, (current, incoming) ->
+            current.getLastModified() != null && incoming.getLastModified() != null
+                && current.getLastModified() > incoming.getLastModified() ? current : incoming);
+    }
+
+    @Override
+    public void onCreated(Person person) {
+        apply(person);
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void onUpdated(Person before, Person after) {
+        apply(after);
+        changes.incrementAndGet();
+    }
+
+    @Override
+    public void onDeleted(Person person) {
+        persons.remove(person.getId());
+        changes.incrementAndGet();
+    }
+
+    /**
+     * Size, last warm-up timings and snapshot counters
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("loaded", loaded);
+        stats.put("path", path.toString());
+        stats.put("rows", persons.size());
+        stats.put("lastWarmUp", new LinkedHashMap<>(lastWarmUp));
+        stats.put("snapshotsWritten", snapshotsWritten.get());
+        stats.put("lastWriteMillis", lastWriteMillis);
+        stats.put("lastWriteBytes", lastWriteBytes);
+        return stats;
+    }
+}
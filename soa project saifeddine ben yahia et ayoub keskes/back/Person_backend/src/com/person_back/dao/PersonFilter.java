@@ -0,0 +1,237 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Criteria of GET /persons?q=&departement=&poste=&minAge=&maxAge=&sort=
+ *
+ * Only the criteria that are set become predicates. The shape key identifies
+ * which predicates are active (not their values), so all filters with the
+ * same shape share one compiled query.
+ */
+public class PersonFilter {
+
+    private String q;
+    private String departement;
+    private String poste;
+    private Integer minAge;
+    private Integer maxAge;
+    private String sortField = "id";
+    private boolean sortDescending = true;
+    private Integer limit;
+    private Integer offset;
+
+    /**
+     * Sortable columns and their ascending in-memory order; anything else is rejected
+     */
+    private static final Map<String, Comparator<Person>> SORT_ORDERS = new LinkedHashMap<>();
+
+    static {
+        SORT_ORDERS.put("id", by(Person::getId));
+        SORT_ORDERS.put("name", by(person -> NameMatching.collationKey(person.getName())));
+        SORT_ORDERS.put("nom", by(person -> NameMatching.collationKey(person.getNom())));
+        SORT_ORDERS.put("prenom", by(person -> NameMatching.collationKey(person.getPrenom())));
+        SORT_ORDERS.put("age", by(Person::getAge));
+        SORT_ORDERS.put("departement", by(person -> NameMatching.collationKey(person.getDepartement())));
+        SORT_ORDERS.put("poste", by(person -> NameMatching.collationKey(person.getPoste())));
+        SORT_ORDERS.put("dateEmbauche", by(person -> NameMatching.collationKey(person.getDateEmbauche())));
+    }
+
+    public String getQ() {
+        return q;
+    }
+
+    public void setQ(String q) {
+        this.q = blankToNull(q) == null ? null : q.trim().toLowerCase();
+    }
+
+    public String getDepartement() {
+        return departement;
+    }
+
+    public void setDepartement(String departement) {
+        this.departement = blankToNull(departement);
+    }
+
+    public String getPoste() {
+        return poste;
+    }
+
+    public void setPoste(String poste) {
+        this.poste = blankToNull(poste);
+    }
+
+    public Integer getMinAge() {
+        return minAge;
+    }
+
+    public void setMinAge(Integer minAge) {
+        this.minAge = minAge;
+    }
+
+    public Integer getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(Integer maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public String getSortField() {
+        return sortField;
+    }
+
+    public boolean isSortDescending() {
+        return sortDescending;
+    }
+
+    /**
+     * Set the sort from "field" (ascending) or "-field" (descending).
+     * Throws IllegalArgumentException for an unknown field.
+     */
+    public void setSort(String sort) {
+        String value = blankToNull(sort);
+        if (value == null) {
+            sortField = "id";
+            sortDescending = true;
+            return;
+        }
+        boolean descending = value.startsWith("-");
+        String field = descending ? value.substring(1) : value;
+        if (SORT_ORDERS.containsKey(field)) {
+            sortField = field;
+            sortDescending = descending;
+            return;
+        }
+        throw new IllegalArgumentException("Invalid sort field '" + field + "'");
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Integer offset) {
+        this.offset = offset;
+    }
+
+    /**
+     * True when no criterion, sort, limit or offset is set (plain findAll)
+     */
+    public boolean isEmpty() {
+        return q == null && departement == null && poste == null && minAge == null && maxAge == null
+                && "id".equals(sortField) && sortDescending && limit == null && offset == null;
+    }
+
+    /**
+     * Which predicates are active and how results are sorted, without values
+     */
+    public String getShapeKey() {
+        return (q != null ? "q" : "-") + (departement != null ? "d" : "-") + (poste != null ? "p" : "-")
+                + (minAge != null ? "a" : "-") + (maxAge != null ? "A" : "-")
+                + ":" + (sortDescending ? "-" : "+") + sortField;
+    }
+
+    /**
+     * Normalized criteria, used as cache key. String values are URL-encoded so
+     * a '&' or '=' inside a value cannot make two filters share a key.
+     */
+    public String getCacheKey() {
+        return "q=" + encode(q) + "&departement=" + encode(departement) + "&poste=" + encode(poste)
+                + "&minAge=" + nullToEmpty(minAge) + "&maxAge=" + nullToEmpty(maxAge)
+                + "&sort=" + (sortDescending ? "-" : "") + sortField
+                + "&limit=" + nullToEmpty(limit) + "&offset=" + nullToEmpty(offset);
+    }
+
+    /**
+     * Whether a person may satisfy the criteria (in memory, mirrors the query).
+     * Strings compare under NameMatching.looseKey, which is never stricter
+     * than the database: used to invalidate cached results, a false match
+     * only costs a reload.
+     */
+    public boolean matches(Person person) {
+        if (q != null) {
+            String term = NameMatching.looseKey(q);
+            if (q.indexOf('%') < 0 && q.indexOf('_') < 0
+                    && !contains(person.getName(), term)
+                    && !contains(person.getNom(), term)
+                    && !contains(person.getPrenom(), term)) {
+                return false;
+            }
+        }
+        if (departement != null && !NameMatching.looseKey(departement).equals(NameMatching.looseKey(person.getDepartement()))) {
+            return false;
+        }
+        if (poste != null && !NameMatching.looseKey(poste).equals(NameMatching.looseKey(person.getPoste()))) {
+            return false;
+        }
+        Integer age = person.getAge();
+        if (minAge != null && (age == null || age < minAge)) {
+            return false;
+        }
+        if (maxAge != null && (age == null || age > maxAge)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * In-memory equivalent of the query's ORDER BY (used to merge sharded results,
+     * which only works if each shard's rows are already in this order).
+     * Strings compare on NameMatching.collationKey, so "Éric" sorts before
+     * "Fabien" as on a case- and accent-insensitive shard; values the key
+     * makes equal are ordered by id, like the query's tie-break. Nulls come
+     * first ascending and last descending.
+     */
+    public Comparator<Person> getComparator() {
+        Comparator<Person> order = SORT_ORDERS.get(sortField);
+        if (sortDescending) {
+            order = order.reversed();
+        }
+        if (!"id".equals(sortField)) {
+            order = order.thenComparing(Person::getId, Comparator.reverseOrder());
+        }
+        return order;
+    }
+
+    private static <T extends Comparable<? super T>> Comparator<Person> by(Function<Person, T> value) {
+        return Comparator.comparing(value, Comparator.nullsFirst(Comparator.<T>naturalOrder()));
+    }
+
+    private static boolean contains(String value, String termKey) {
+        return value != null && NameMatching.looseKey(value).contains(termKey);
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    private static String encode(String value) {
+        if (value == null) {
+            return "";
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+    }
+
+    private static String nullToEmpty(Object value) {
+        return value == null ? "" : value.toString();
+    }
+}
@@ -0,0 +1,205 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact binary snapshot of the person dataset.
+ *
+ * Layout (big endian):
+ * header   magic "PSNP", int version, long highWaterMark, long writtenAt, int count
+ * records  long id, int age, long lastModified, then name, nom, prenom, email,
+ *          telephone, poste, departement, dateEmbauche as unsigned short byte
+ *          length (0xFFFF for null) followed by UTF-8 bytes
+ * trailer  long CRC32 of the records
+ *
+ * A null age is stored as Integer.MIN_VALUE and a null lastModified as
+ * Long.MIN_VALUE. The high-water mark is the largest lastModified written:
+ * rows modified after it are not in the snapshot. Files are written to a
+ * temporary file and moved into place, and read through a read-only memory
+ * mapping.
+ */
+public class PersonSnapshot {
+
+    private static final int MAGIC = 0x50534E50;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4;
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    private final long highWaterMark;
+    private final long writtenAt;
+    private final List<Person> persons;
+
+    private PersonSnapshot(long highWaterMark, long writtenAt, List<Person> persons) {
+        this.highWaterMark = highWaterMark;
+        this.writtenAt = writtenAt;
+        this.persons = persons;
+    }
+
+    /**
+     * Largest lastModified in the snapshot (Long.MIN_VALUE when empty)
+     */
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getWrittenAt() {
+        return writtenAt;
+    }
+
+    public List<Person> getPersons() {
+        return persons;
+    }
+
+    /**
+     * Write the persons to path, replacing any previous snapshot.
+     *
+     * @return the snapshot's high-water mark
+     */
+    public static long write(Path path, Collection<Person> persons) throws IOException {
+        List<Person> records = new ArrayList<>(persons);
+        long highWaterMark = Long.MIN_VALUE;
+        for (Person person : records) {
+            if (person.getLastModified() != null) {
+                highWaterMark = Math.max(highWaterMark, person.getLastModified());
+            }
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(highWaterMark);
+            header.writeLong(System.currentTimeMillis());
+            header.writeInt(records.size());
+
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            for (Person person : records) {
+                out.writeLong(person.getId());
+                out.writeInt(person.getAge() == null ? Integer.MIN_VALUE : person.getAge());
+                out.writeLong(person.getLastModified() == null ? Long.MIN_VALUE : person.getLastModified());
+                writeString(out, person.getName());
+                writeString(out, person.getNom());
+                writeString(out, person.getPrenom());
+                writeString(out, person.getEmail());
+                writeString(out, person.getTelephone());
+                writeString(out, person.getPoste());
+                writeString(out, person.getDepartement());
+                writeString(out, person.getDateEmbauche());
+            }
+            out.flush();
+            header.writeLong(crc.getValue());
+            file.getFD().sync();
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return highWaterMark;
+    }
+
+    /**
+     * Map the snapshot at path and decode it.
+     * Throws IOException if the file is missing, truncated or corrupt.
+     */
+    public static PersonSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " is too large to map (" + size + " bytes)");
+            }
+            if (size < HEADER_BYTES + 8) {
+                throw new IOException("Snapshot " + path + " is truncated");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a person snapshot: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + path);
+            }
+            long highWaterMark = buffer.getLong();
+            long writtenAt = buffer.getLong();
+            int count = buffer.getInt();
+
+            ByteBuffer records = buffer.duplicate();
+            records.position(HEADER_BYTES).limit((int) size - 8);
+            CRC32 crc = new CRC32();
+            crc.update(records);
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                throw new IOException("Snapshot " + path + " is corrupt (checksum mismatch)");
+            }
+
+            List<Person> persons = new ArrayList<>(count);
+            byte[] scratch = new byte[256];
+            try {
+                for (int i = 0; i < count; i++) {
+                    Person person = new Person();
+                    person.setId(buffer.getLong());
+                    int age = buffer.getInt();
+                    person.setAge(age == Integer.MIN_VALUE ? null : age);
+                    long lastModified = buffer.getLong();
+                    person.setLastModified(lastModified == Long.MIN_VALUE ? null : lastModified);
+                    person.setName(readString(buffer, scratch));
+                    person.setNom(readString(buffer, scratch));
+                    person.setPrenom(readString(buffer, scratch));
+                    person.setEmail(readString(buffer, scratch));
+                    person.setTelephone(readString(buffer, scratch));
+                    person.setPoste(readString(buffer, scratch));
+                    person.setDepartement(readString(buffer, scratch));
+                    person.setDateEmbauche(readString(buffer, scratch));
+                    persons.add(person);
+                }
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new IOException("Snapshot " + path + " is truncated", e);
+            }
+            if (buffer.position() != size - 8) {
+                throw new IOException("Snapshot " + path + " has an unexpected record count");
+            }
+            return new PersonSnapshot(highWaterMark, writtenAt, persons);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= NULL_LENGTH) {
+            throw new IOException("Value too long for a snapshot (" + bytes.length + " bytes)");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,372 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.query.spi.QueryImplementor;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * DAO-level query profiler, replacing hibernate.show_sql.
+ *
+ * Every profiled query updates a latency histogram for its shape (the DAO
+ * method that runs it). Queries slower than person.profiler.slowQueryMillis are
+ * handed to a background thread with their bind parameters; that thread asks
+ * the database that ran the query (primary, replica or shard) for the execution
+ * plan (EXPLAIN), logs the record and keeps the most recent ones for
+ * GET /api/diagnostics/slow-queries. Nothing is logged or explained on the
+ * request thread. String bind values (names, emails...) are masked in the log
+ * and the report unless person.profiler.showStringValues=true.
+ */
+public class QueryProfiler {
+
+    private static final Logger LOGGER = Logger.getLogger(QueryProfiler.class.getName());
+
+    // Histogram bucket upper bounds in milliseconds, the last bucket is open
+    private static final long[] BUCKET_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private static QueryProfiler instance;
+
+    private final long slowQueryNanos;
+    private final boolean explain;
+    private final boolean showStringValues;
+    private final int keepSlowQueries;
+    private final ConcurrentMap<String, ShapeStats> shapes = new ConcurrentHashMap<>();
+    private final BlockingQueue<SlowQuery> pending;
+    private final Deque<SlowQuery> recent = new ArrayDeque<>();
+    private final AtomicLong slowQueries = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    public static synchronized QueryProfiler getInstance() {
+        if (instance == null) {
+            instance = new QueryProfiler();
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the background thread, if the profiler was created
+     */
+    public static synchronized void shutdownInstance() {
+        if (instance != null) {
+            instance.running = false;
+            instance.worker.interrupt();
+            instance = null;
+        }
+    }
+
+    private QueryProfiler() {
+        this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(AppSettings.getLong("person.profiler.slowQueryMillis", 200));
+        this.explain = AppSettings.getBoolean("person.profiler.explain", true);
+        this.showStringValues = AppSettings.getBoolean("person.profiler.showStringValues", false);
+        this.keepSlowQueries = AppSettings.getInt("person.profiler.keepSlowQueries", 100);
+        this.pending = new LinkedBlockingQueue<>(AppSettings.getInt("person.profiler.queueCapacity", 1000));
+        this.worker = new Thread(this::run, "person-query-profiler");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Profile query.getResultList()
+     */
+    public <T> List<T> list(String shape, TypedQuery<T> query) {
+        return profile(shape, query, null, query::getResultList);
+    }
+
+    /**
+     * Profile query.getSingleResult()
+     */
+    public <T> T single(String shape, TypedQuery<T> query) {
+        return profile(shape, query, null, query::getSingleResult);
+    }
+
+    /**
+     * Profile an operation that is not a JPQL query (e.g. EntityManager.find); no plan is recorded
+     */
+    public <T> T time(String shape, Map<String, Object> parameters, Supplier<T> work) {
+        return profile(shape, null, parameters, work);
+    }
+
+    private <T> T profile(String shape, Query query, Map<String, Object> parameters, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            shapes.computeIfAbsent(shape, k -> new ShapeStats()).record(nanos);
+            if (nanos >= slowQueryNanos) {
+                slowQueries.incrementAndGet();
+                SlowQuery slow = query == null
+                        ? new SlowQuery(shape, null, null, parameters, nanos, showStringValues)
+                        : new SlowQuery(shape, queryString(query), factory(query), bindValues(query), nanos, showStringValues);
+                if (!pending.offer(slow)) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private String queryString(Query query) {
+        try {
+            return query.unwrap(org.hibernate.query.Query.class).getQueryString();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Factory of the session that ran the query, so EXPLAIN runs on the same database
+     */
+    private EntityManagerFactory factory(Query query) {
+        try {
+            return query.unwrap(QueryImplementor.class).getProducer().getFactory();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private Map<String, Object> bindValues(Query query) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Parameter<?> parameter : query.getParameters()) {
+            if (parameter.getName() != null && query.isBound(parameter)) {
+                values.put(parameter.getName(), query.getParameterValue(parameter.getName()));
+            }
+        }
+        return values;
+    }
+
+    private void run() {
+        while (running) {
+            SlowQuery slow;
+            try {
+                slow = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (explain && slow.jpql != null && slow.source != null) {
+                try {
+                    slow.plan = explain(slow.source, slow.jpql, slow.bindValues);
+                } catch (RuntimeException e) {
+                    slow.planError = e.getMessage();
+                }
+            }
+            // Only the masked text is kept
+            slow.source = null;
+            slow.bindValues = null;
+            synchronized (recent) {
+                recent.addFirst(slow);
+                while (recent.size() > keepSlowQueries) {
+                    recent.removeLast();
+                }
+            }
+            LOGGER.log(Level.WARNING, "Slow query {0} took {1} ms, parameters {2}, plan {3}",
+                new Object[] {slow.shape, slow.durationMillis(), slow.parameterText,
+                    slow.plan != null ? slow.plan : slow.planError});
+        }
+    }
+
+    /**
+     * Translate the JPQL with Hibernate's cached query plan and run EXPLAIN on
+     * the database that ran the query, with the recorded bind values
+     */
+    private List<Map<String, Object>> explain(EntityManagerFactory emf, String jpql, Map<String, Object> parameters) {
+        SessionFactoryImplementor sessionFactory = emf.unwrap(SessionFactoryImplementor.class);
+        QueryTranslator translator = sessionFactory.getQueryPlanCache()
+                .getHQLQueryPlan(jpql, false, Collections.emptyMap())
+                .getTranslators()[0];
+        String sql = translator.getSQLString();
+
+        Map<Integer, Object> values = new TreeMap<>();
+        ParameterTranslations translations = translator.getParameterTranslations();
+        for (Object name : translations.getNamedParameterNames()) {
+            Object value = parameters.get(name);
+            if (value instanceof Collection) {
+                throw new IllegalArgumentException("collection parameters are not explained");
+            }
+            for (int location : translations.getNamedParameterSqlLocations((String) name)) {
+                values.put(location, value);
+            }
+        }
+
+        EntityManager em = emf.createEntityManager();
+        try {
+            return em.unwrap(Session.class).doReturningWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                    for (Map.Entry<Integer, Object> value : values.entrySet()) {
+                        statement.setObject(value.getKey() + 1, value.getValue());
+                    }
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        ResultSetMetaData meta = resultSet.getMetaData();
+                        while (resultSet.next()) {
+                            Map<String, Object> row = new LinkedHashMap<>();
+                            for (int i = 1; i <= meta.getColumnCount(); i++) {
+                                row.put(meta.getColumnLabel(i), resultSet.getObject(i));
+                            }
+                            rows.add(row);
+                        }
+                    }
+                    return rows;
+                }
+            });
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Per-shape latency histograms and the most recent slow queries
+     */
+    public Map<String, Object> getReport() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("slowQueryMillis", TimeUnit.NANOSECONDS.toMillis(slowQueryNanos));
+        report.put("slowQueries", slowQueries.get());
+        report.put("dropped", dropped.get());
+
+        Map<String, Object> shapeReports = new TreeMap<>();
+        for (Map.Entry<String, ShapeStats> entry : shapes.entrySet()) {
+            shapeReports.put(entry.getKey(), entry.getValue().toMap());
+        }
+        report.put("shapes", shapeReports);
+
+        List<Map<String, Object>> slow = new ArrayList<>();
+        synchronized (recent) {
+            for (SlowQuery query : recent) {
+                slow.add(query.toMap());
+            }
+        }
+        report.put("recent", slow);
+        return report;
+    }
+
+    private static final class ShapeStats {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKET_MILLIS.length && millis >= BUCKET_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            long total = count.get();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", total);
+            map.put("meanMillis", total == 0 ? 0.0 : totalNanos.get() / 1e6 / total);
+            map.put("maxMillis", maxNanos.get() / 1e6);
+            map.put("p50Millis", percentile(total, 0.50));
+            map.put("p95Millis", percentile(total, 0.95));
+            map.put("p99Millis", percentile(total, 0.99));
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < buckets.length(); i++) {
+                histogram.put(i < BUCKET_MILLIS.length ? "<" + BUCKET_MILLIS[i] + "ms"
+                        : ">=" + BUCKET_MILLIS[BUCKET_MILLIS.length - 1] + "ms", buckets.get(i));
+            }
+            map.put("histogram", histogram);
+            return map;
+        }
+
+        /**
+         * Upper bound of the bucket holding the percentile (max for the open bucket)
+         */
+        private double percentile(long total, double fraction) {
+            if (total == 0) {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return BUCKET_MILLIS[i];
+                }
+            }
+            return maxNanos.get() / 1e6;
+        }
+    }
+
+    private static final class SlowQuery {
+        final String shape;
+        final String jpql;
+        final Map<String, String> parameterText;
+        final long nanos;
+        final long timestamp = System.currentTimeMillis();
+        // Where and with what the query ran, until the worker has explained it
+        volatile EntityManagerFactory source;
+        volatile Map<String, Object> bindValues;
+        volatile List<Map<String, Object>> plan;
+        volatile String planError;
+
+        SlowQuery(String shape, String jpql, EntityManagerFactory source, Map<String, Object> parameters,
+                  long nanos, boolean showStringValues) {
+            this.shape = shape;
+            this.jpql = jpql;
+            this.source = source;
+            this.bindValues = parameters == null ? Collections.emptyMap() : parameters;
+            this.parameterText = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> parameter : this.bindValues.entrySet()) {
+                parameterText.put(parameter.getKey(), describe(parameter.getValue(), showStringValues));
+            }
+            this.nanos = nanos;
+        }
+
+        /**
+         * Text of a bind value; strings (also inside collections) are masked unless shown
+         */
+        private static String describe(Object value, boolean showStringValues) {
+            if (value instanceof Collection) {
+                StringJoiner items = new StringJoiner(", ", "[", "]");
+                for (Object item : (Collection<?>) value) {
+                    items.add(describe(item, showStringValues));
+                }
+                return items.toString();
+            }
+            if (!showStringValues && (value instanceof CharSequence || value instanceof Character)) {
+                return "***";
+            }
+            return String.valueOf(value);
+        }
+
+        double durationMillis() {
+            return nanos / 1e6;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("shape", shape);
+            map.put("durationMillis", durationMillis());
+            map.put("timestamp", timestamp);
+            map.put("query", jpql);
+            map.put("parameters", parameterText);
+            map.put("plan", plan);
+            if (planError != null) {
+                map.put("planError", planError);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.person_back.dao;
+
+import com.person_back.config.AppSettings;
+import com.person_back.model.Person;
+import com.person_back.model.PersonRoute;
+import org.hibernate.Session;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hash-sharded storage of persons, used by PersonDAO when
+ * -Dperson.shard.urls=jdbc:mysql://s0/person_db,jdbc:mysql://s1/person_db,... is set.
+ *
+ * Each person lives on shard hash(id) % N. The routing database (the personPU
+ * database, mapped through personRoutingPU) holds the person_routing index,
+ * which allocates global ids and enforces email uniqueness across shards.
+ * Point operations go to one shard; queries run on all shards in parallel and
+ * their results are merged.
+ */
+public class ShardedPersonStore {
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedPersonStore.class.getName());
+
+    private static final String INSERT_SQL =
+        "INSERT INTO persons (id, name, age, nom, prenom, email, telephone, poste, departement, date_embauche, last_modified) "
+        + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final EntityManagerFactory routing;
+    private final List<EntityManagerFactory> shards = new ArrayList<>();
+    private final ExecutorService executor;
+    private final long timeoutMillis;
+    // Persons deleted from their shard whose routing entry could not be removed yet
+    private final Set<Long> orphanRoutes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * One page of a query on one shard
+     */
+    public interface PageQuery<T> {
+        /**
+         * @param maxResults -1 for no limit
+         */
+        List<T> run(EntityManager em, int firstResult, int maxResults);
+    }
+
+    /**
+     * @param urls JDBC urls of the shards; the routing index uses the personPU database
+     *             (personRoutingPU has the same connection settings and -Dperson.db.* overrides)
+     */
+    public ShardedPersonStore(List<String> urls) {
+        this.routing = Persistence.createEntityManagerFactory("personRoutingPU", DataSourceRouter.databaseOverrides());
+        for (String url : urls) {
+            Map<String, Object> overrides = DataSourceRouter.databaseOverrides();
+            overrides.put("javax.persistence.jdbc.url", url);
+            String user = AppSettings.getString("person.shard.user", null);
+            if (user != null) {
+                overrides.put("javax.persistence.jdbc.user", user);
+                overrides.put("javax.persistence.jdbc.password", AppSettings.getString("person.shard.password", ""));
+            }
+            shards.add(Persistence.createEntityManagerFactory("personPU", overrides));
+        }
+        this.timeoutMillis = AppSettings.getLong("person.shard.timeoutMillis", 30000);
+        this.executor = Executors.newFixedThreadPool(Math.max(2, shards.size() * 2), r -> {
+            Thread thread = new Thread(r, "person-shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Shard holding the person with this id
+     */
+    public EntityManagerFactory shardFor(Long id) {
+        // murmur3 finalizer, so sequential ids spread evenly
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb34fe1a85ec3L;
+        h ^= h >>> 33;
+        return shards.get((int) Math.floorMod(h, (long) shards.size()));
+    }
+
+    // ==================== WRITES ====================
+
+    /**
+     * Allocate the id and reserve the email in the routing index, then insert on the owning shard
+     */
+    public void create(Person person) {
+        removeOrphanRoutes();
+        PersonRoute route = new PersonRoute(person.getEmail());
+        long lastModified = System.currentTimeMillis();
+        inTransaction(routing, em -> {
+            if (emailTaken(em, person.getEmail(), null)) {
+                throw new DuplicateEmailException(person.getEmail());
+            }
+            em.persist(route);
+            em.flush();
+            return null;
+        }, person.getEmail());
+
+        try {
+            inTransaction(shardFor(route.getId()), em -> {
+                em.unwrap(Session.class).doWork(connection -> {
+                    try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+                        statement.setLong(1, route.getId());
+                        statement.setString(2, person.getName());
+                        setInteger(statement, 3, person.getAge());
+                        statement.setString(4, person.getNom());
+                        statement.setString(5, person.getPrenom());
+                        statement.setString(6, person.getEmail());
+                        setString(statement, 7, person.getTelephone());
+                        setString(statement, 8, person.getPoste());
+                        setString(statement, 9, person.getDepartement());
+                        setString(statement, 10, person.getDateEmbauche());
+                        statement.setLong(11, lastModified);
+                        statement.executeUpdate();
+                    }
+                });
+                return null;
+            }, null);
+        } catch (RuntimeException e) {
+            // Release the email reserved above
+            inTransaction(routing, em -> {
+                PersonRoute reserved = em.find(PersonRoute.class, route.getId());
+                if (reserved != null) {
+                    em.remove(reserved);
+                }
+                return null;
+            }, null);
+            throw e;
+        }
+        person.setId(route.getId());
+        person.setLastModified(lastModified);
+    }
+
+    /**
+     * Update a person on its shard (and its email in the routing index), returning
+     * its previous state, or null without writing anything when the person does
+     * not exist. The person gets the lastModified that was committed.
+     */
+    public Person update(Person person) {
+        EntityManagerFactory shard = shardFor(person.getId());
+        Person current = find(shard, person.getId());
+        if (current == null) {
+            return null;
+        }
+        boolean emailChanged = !current.getEmail().equalsIgnoreCase(person.getEmail());
+        if (emailChanged) {
+            removeOrphanRoutes();
+            inTransaction(routing, em -> {
+                if (emailTaken(em, person.getEmail(), person.getId())) {
+                    throw new DuplicateEmailException(person.getEmail());
+                }
+                PersonRoute route = em.find(PersonRoute.class, person.getId());
+                if (route != null) {
+                    route.setEmail(person.getEmail());
+                }
+                return null;
+            }, person.getEmail());
+        }
+        Person updated;
+        try {
+            // Copy onto the managed row: a merge would insert a row deleted concurrently
+            // again, with a shard-local id and no routing entry
+            updated = inTransaction(shard, em -> {
+                Person managed = em.find(Person.class, person.getId());
+                if (managed == null) {
+                    return null;
+                }
+                copyFields(person, managed);
+                em.flush();
+                return new Person(managed);
+            }, null);
+        } catch (RuntimeException e) {
+            if (emailChanged) {
+                // Give the old email back its routing entry
+                inTransaction(routing, em -> {
+                    PersonRoute route = em.find(PersonRoute.class, person.getId());
+                    if (route != null) {
+                        route.setEmail(current.getEmail());
+                    }
+                    return null;
+                }, null);
+            }
+            throw e;
+        }
+        if (updated == null) {
+            if (emailChanged) {
+                // Deleted meanwhile: its routing entry is gone or about to be
+                orphanRoutes.add(person.getId());
+            }
+            return null;
+        }
+        person.setLastModified(updated.getLastModified());
+        return current;
+    }
+
+    /**
+     * Delete a person from its shard and the routing index, returning the deleted state.
+     * Once the shard row is gone the delete has happened: a routing entry that
+     * cannot be removed now is logged and removed again before the next write
+     * that reserves an email.
+     */
+    public Person delete(Long id) {
+        Person removed = inTransaction(shardFor(id), em -> {
+            Person person = em.find(Person.class, id);
+            if (person == null) {
+                return null;
+            }
+            Person copy = new Person(person);
+            em.remove(person);
+            return copy;
+        }, null);
+        if (removed != null) {
+            orphanRoutes.add(id);
+            removeOrphanRoutes();
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the routing entries of persons already deleted from their shard
+     */
+    private void removeOrphanRoutes() {
+        for (Long id : orphanRoutes) {
+            try {
+                inTransaction(routing, em -> {
+                    PersonRoute route = em.find(PersonRoute.class, id);
+                    if (route != null) {
+                        em.remove(route);
+                    }
+                    return null;
+                }, null);
+                orphanRoutes.remove(id);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not remove the routing entry of deleted person " + id + ", will retry", e);
+            }
+        }
+    }
+
+    private static void copyFields(Person from, Person to) {
+        to.setName(from.getName());
+        to.setAge(from.getAge());
+        to.setNom(from.getNom());
+        to.setPrenom(from.getPrenom());
+        to.setEmail(from.getEmail());
+        to.setTelephone(from.getTelephone());
+        to.setPoste(from.getPoste());
+        to.setDepartement(from.getDepartement());
+        to.setDateEmbauche(from.getDateEmbauche());
+    }
+
+    /**
+     * Check the routing index for an email, optionally ignoring one person
+     */
+    public boolean existsByEmail(String email, Long excludeId) {
+        removeOrphanRoutes();
+        EntityManager em = routing.createEntityManager();
+        try {
+            return emailTaken(em, email, excludeId);
+        } finally {
+            em.close();
+        }
+    }
+
+    private boolean emailTaken(EntityManager em, String email, Long excludeId) {
+        TypedQuery<Long> query = em.createQuery(
+            "SELECT COUNT(r) FROM PersonRoute r WHERE r.email = :email" + (excludeId != null ? " AND r.id != :id" : ""),
+            Long.class
+        );
+        query.setParameter("email", email.toLowerCase());
+        if (excludeId != null) {
+            query.setParameter("id", excludeId);
+        }
+        return QueryProfiler.getInstance().single("ShardedPersonStore.emailTaken", query) > 0;
+    }
+
+    private <T> T inTransaction(EntityManagerFactory emf, Function<EntityManager, T> work, String email) {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } catch (DuplicateEmailException e) {
+            rollback(em);
+            throw e;
+        } catch (PersistenceException e) {
+            rollback(em);
+            if (email != null && isConstraintViolation(e)) {
+                // Lost a race on the unique email constraint of the routing index
+                throw new DuplicateEmailException(email);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            rollback(em);
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+
+    private void rollback(EntityManager em) {
+        if (em.getTransaction().isActive()) {
+            em.getTransaction().rollback();
+        }
+    }
+
+    private boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof org.hibernate.exception.ConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void setString(PreparedStatement statement, int index, String value) throws java.sql.SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    private static void setInteger(PreparedStatement statement, int index, Integer value) throws java.sql.SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+
+    // ==================== READS ====================
+
+    /**
+     * Find a person on its shard
+     */
+    public Person findById(Long id) {
+        return find(shardFor(id), id);
+    }
+
+    private Person find(EntityManagerFactory shard, Long id) {
+        EntityManager em = shard.createEntityManager();
+        try {
+            return QueryProfiler.getInstance().time("ShardedPersonStore.findById",
+                Collections.singletonMap("id", id), () -> em.find(Person.class, id));
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Run a query on every shard in parallel and return the per-shard results
+     */
+    public <T> List<T> gather(Function<EntityManager, T> work) {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (EntityManagerFactory shard : shards) {
+            futures.add(executor.submit(() -> {
+                EntityManager em = shard.createEntityManager();
+                try {
+                    return work.apply(em);
+                } finally {
+                    em.close();
+                }
+            }));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+            return results;
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timed out after " + timeoutMillis + " ms waiting for shards", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause.getMessage(), cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Run a sorted query on every shard and merge the results in the same order.
+     * Each shard returns its first offset + limit rows; the merged list is then sliced.
+     *
+     * @param limit -1 for no limit
+     */
+    public <T> List<T> gatherSorted(PageQuery<T> query, Comparator<? super T> order, int offset, int limit) {
+        int perShard = limit < 0 ? -1 : offset + limit;
+        List<List<T>> parts = gather(em -> query.run(em, 0, perShard));
+
+        // k-way merge of the already sorted shard results
+        PriorityQueue<PartCursor<T>> heads = new PriorityQueue<>((a, b) -> order.compare(a.current(), b.current()));
+        for (List<T> part : parts) {
+            if (!part.isEmpty()) {
+                heads.add(new PartCursor<>(part));
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        int skipped = 0;
+        while (!heads.isEmpty() && (limit < 0 || merged.size() < limit)) {
+            PartCursor<T> head = heads.poll();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(head.current());
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Sum of a count on every shard
+     */
+    public long sum(Function<EntityManager, Long> count) {
+        long total = 0;
+        for (Long part : gather(count)) {
+            total += part;
+        }
+        return total;
+    }
+
+    /**
+     * Union of distinct values from every shard. Values equal under
+     * NameMatching.collationKey ("IT" and "it") are one value, as on each
+     * shard, kept with the first spelling met and ordered by that key.
+     */
+    public List<String> union(Function<EntityManager, List<String>> values) {
+        Map<String, String> merged = new TreeMap<>();
+        for (List<String> part : gather(values)) {
+            for (String value : part) {
+                merged.putIfAbsent(NameMatching.collationKey(value), value);
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Close the routing and shard factories and the query pool
+     */
+    public void close() {
+        executor.shutdownNow();
+        if (routing.isOpen()) {
+            routing.close();
+        }
+        for (EntityManagerFactory shard : shards) {
+            if (shard.isOpen()) {
+                shard.close();
+            }
+        }
+    }
+
+    private static final class PartCursor<T> {
+        final List<T> part;
+        int index;
+
+        PartCursor(List<T> part) {
+            this.part = part;
+        }
+
+        T current() {
+            return part.get(index);
+        }
+
+        boolean advance() {
+            return ++index < part.size();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.person_back.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent loads: the first caller for a key runs the
+ * load, callers arriving while it is in flight wait for and share its result
+ * (or its error) instead of running the same query again.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final long timeoutMillis;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong sharedCalls = new AtomicLong();
+    private final AtomicLong sharedFailures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public SingleFlight(boolean enabled, long timeoutMillis) {
+        this.enabled = enabled;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Run the load for this key, or join the one already in flight
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String key, Supplier<V> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            sharedCalls.incrementAndGet();
+            return (V) await(key, existing);
+        }
+
+        loads.incrementAndGet();
+        try {
+            V value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Stop sharing loads started before now, so callers arriving after a write
+     * never receive a result read before it
+     */
+    public void forgetInFlight() {
+        inFlight.clear();
+    }
+
+    private Object await(String key, CompletableFuture<Object> flight) {
+        try {
+            return flight.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            throw new RuntimeException("Timed out after " + timeoutMillis + " ms waiting for shared load of " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for shared load of " + key, e);
+        } catch (ExecutionException e) {
+            sharedFailures.incrementAndGet();
+            // The leader's own exception, so every caller sees the same type
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Loads executed and database calls saved by sharing
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("loads", loads.get());
+        stats.put("savedCalls", sharedCalls.get());
+        stats.put("sharedFailures", sharedFailures.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+}
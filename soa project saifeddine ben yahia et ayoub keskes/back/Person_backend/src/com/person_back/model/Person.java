@@ -1,9 +1,18 @@
 package com.person_back.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 
 @Entity
-@Table(name = "persons")
+@Table(name = "persons", indexes = {
+    // Composite indexes for the GET /persons filter (departement, poste, age range)
+    @Index(name = "idx_persons_departement_poste_age", columnList = "departement, poste, age"),
+    @Index(name = "idx_persons_poste_age", columnList = "poste, age"),
+    @Index(name = "idx_persons_age", columnList = "age"),
+    // Warm-up catch-up (rows modified since the snapshot)
+    @Index(name = "idx_persons_last_modified", columnList = "last_modified")
+})
 public class Person {
     
     @Id
@@ -40,6 +49,11 @@ public class Person {
     @Column(name = "date_embauche")
     private String dateEmbauche;
 
+    // Change tracking (epoch millis), lets warm-up catch up from a snapshot
+    @JsonIgnore
+    @Column(name = "last_modified")
+    private Long lastModified;
+
     // Constructors
     public Person() {}
 
@@ -51,6 +65,26 @@ public class Person {
         this.email = email;
     }
 
+    public Person(Person other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.age = other.age;
+        this.nom = other.nom;
+        this.prenom = other.prenom;
+        this.email = other.email;
+        this.telephone = other.telephone;
+        this.poste = other.poste;
+        this.departement = other.departement;
+        this.dateEmbauche = other.dateEmbauche;
+        this.lastModified = other.lastModified;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        this.lastModified = System.currentTimeMillis();
+    }
+
     // Getters & Setters
     public Long getId() {
         return id;
@@ -132,6 +166,16 @@ public class Person {
         this.dateEmbauche = dateEmbauche;
     }
 
+    @JsonIgnore
+    public Long getLastModified() {
+        return lastModified;
+    }
+
+    @JsonIgnore
+    public void setLastModified(Long lastModified) {
+        this.lastModified = lastModified;
+    }
+
     @Override
     public String toString() {
         return "Person{" +
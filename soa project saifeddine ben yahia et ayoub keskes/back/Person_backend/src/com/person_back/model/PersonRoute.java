@@ -0,0 +1,44 @@
+package com.person_back.model;
+
+import javax.persistence.*;
+
+/**
+ * Routing index used when persons are sharded: allocates the global person id
+ * and keeps emails unique across all shards. Lives in the routing database.
+ */
+@Entity
+@Table(name = "person_routing")
+public class PersonRoute {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Stored lower-cased, so the unique constraint is case-insensitive
+    @Column(name = "email", nullable = false, unique = true)
+    private String email;
+
+    // Constructors
+    public PersonRoute() {}
+
+    public PersonRoute(String email) {
+        this.email = email.toLowerCase();
+    }
+
+    // Getters & Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email.toLowerCase();
+    }
+}
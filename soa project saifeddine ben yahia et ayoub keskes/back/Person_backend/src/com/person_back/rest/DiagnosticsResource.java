@@ -0,0 +1,77 @@
+package com.person_back.rest;
+
+import com.person_back.dao.DuplicateDetector;
+import com.person_back.dao.PersonCounters;
+import com.person_back.dao.PersonDAO;
+import com.person_back.dao.PersonDataset;
+import com.person_back.dao.QueryProfiler;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+
+@Path("/diagnostics")
+@Produces(MediaType.APPLICATION_JSON)
+public class DiagnosticsResource {
+
+    /**
+     * Person counters and their reconciliation drift
+     * GET /diagnostics/counters
+     */
+    @GET
+    @Path("/counters")
+    public Response getCounters() {
+        return Response.ok(PersonCounters.getInstance().getStats()).build();
+    }
+
+    /**
+     * Response cache hit rate, size and evictions
+     * GET /diagnostics/response-cache
+     */
+    @GET
+    @Path("/response-cache")
+    public Response getResponseCache() {
+        return Response.ok(ResponseCache.getInstance().getStats()).build();
+    }
+
+    /**
+     * Shared DAO loads and database calls saved by single-flight
+     * GET /diagnostics/single-flight
+     */
+    @GET
+    @Path("/single-flight")
+    public Response getSingleFlight() {
+        return Response.ok(PersonDAO.getSingleFlightStats()).build();
+    }
+
+    /**
+     * Per-query latency histograms and recent slow queries with their plans
+     * GET /diagnostics/slow-queries
+     */
+    @GET
+    @Path("/slow-queries")
+    public Response getSlowQueries() {
+        return Response.ok(QueryProfiler.getInstance().getReport()).build();
+    }
+
+    /**
+     * Warm-start dataset size, last warm-up timings and snapshot writes
+     * GET /diagnostics/snapshot
+     */
+    @GET
+    @Path("/snapshot")
+    public Response getSnapshot() {
+        return Response.ok(PersonDataset.getInstance().getStats()).build();
+    }
+
+    /**
+     * Duplicate index size, block sizes and the cost of the last scan
+     * GET /diagnostics/duplicates
+     */
+    @GET
+    @Path("/duplicates")
+    public Response getDuplicates() {
+        return Response.ok(DuplicateDetector.getInstance().getStats()).build();
+    }
+}
@@ -1,16 +1,26 @@
 package com.person_back.rest;
 
+import com.person_back.dao.DuplicateDetector;
+import com.person_back.dao.DuplicateEmailException;
+import com.person_back.dao.NameMatching;
+import com.person_back.dao.PersonCounters;
 import com.person_back.dao.PersonDAO;
+import com.person_back.dao.PersonFilter;
 import com.person_back.model.Person;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 @Path("/persons")
@@ -18,7 +28,10 @@ import java.util.Map;
 @Consumes(MediaType.APPLICATION_JSON)
 public class PersonResource {
     
+    private static final Logger LOGGER = Logger.getLogger(PersonResource.class.getName());
+
     private final PersonDAO dao = new PersonDAO();
+    private final ResponseCache responseCache = ResponseCache.getInstance();
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
 
     
@@ -28,14 +41,48 @@ public class PersonResource {
         // CORSFilter will add headers
     }
     /**
-     * GET all persons
+     * GET all persons, optionally filtered, sorted and limited
      * GET /persons
+     * GET /persons?q=&departement=&poste=&minAge=&maxAge=&sort=-age&limit=&offset=
      */
     @GET
-    public Response getAll() {
+    public Response getAll(@QueryParam("q") String q,
+                           @QueryParam("departement") String departement,
+                           @QueryParam("poste") String poste,
+                           @QueryParam("minAge") String minAge,
+                           @QueryParam("maxAge") String maxAge,
+                           @QueryParam("sort") String sort,
+                           @QueryParam("limit") String limit,
+                           @QueryParam("offset") String offset,
+                           @Context HttpHeaders headers) {
         try {
-            List<Person> persons = dao.findAll();
-            return Response.ok(persons).build();
+            PersonFilter filter = new PersonFilter();
+            filter.setQ(q);
+            filter.setDepartement(departement);
+            filter.setPoste(poste);
+            try {
+                filter.setMinAge(parseOptionalInt(minAge));
+                filter.setMaxAge(parseOptionalInt(maxAge));
+                filter.setLimit(parseOptionalInt(limit));
+                filter.setOffset(parseOptionalInt(offset));
+            } catch (NumberFormatException e) {
+                return buildErrorResponse("minAge, maxAge, limit and offset must be numbers");
+            }
+            if ((filter.getLimit() != null && filter.getLimit() <= 0)
+                    || (filter.getOffset() != null && filter.getOffset() < 0)) {
+                return buildErrorResponse("limit must be positive and offset must not be negative");
+            }
+            try {
+                filter.setSort(sort);
+            } catch (IllegalArgumentException e) {
+                return buildErrorResponse(e.getMessage());
+            }
+
+            if (filter.isEmpty()) {
+                return responseCache.serve("/persons", person -> true, dao::findAll, headers);
+            }
+            return responseCache.serve("/persons?" + filter.getCacheKey(),
+                    filter::matches, () -> dao.findByFilter(filter), headers);
         } catch (Exception e) {
             return buildErrorResponse("Error retrieving persons: " + e.getMessage());
         }
@@ -67,13 +114,14 @@ public class PersonResource {
      */
     @GET
     @Path("/search")
-    public Response searchByName(@QueryParam("name") String name) {
+    public Response searchByName(@QueryParam("name") String name, @Context HttpHeaders headers) {
         try {
             if (name == null || name.trim().isEmpty()) {
                 return buildErrorResponse("Search parameter 'name' is required");
             }
-            List<Person> persons = dao.findByName(name);
-            return Response.ok(persons).build();
+            String term = name.trim().toLowerCase();
+            return responseCache.serve("/persons/search?name=" + term,
+                    person -> matchesName(person, term), () -> dao.findByName(term), headers);
         } catch (Exception e) {
             return buildErrorResponse("Error searching persons: " + e.getMessage());
         }
@@ -85,21 +133,61 @@ public class PersonResource {
      */
     @GET
     @Path("/department")
-    public Response searchByDepartment(@QueryParam("name") String departement) {
+    public Response searchByDepartment(@QueryParam("name") String departement, @Context HttpHeaders headers) {
         try {
             if (departement == null || departement.trim().isEmpty()) {
                 return buildErrorResponse("Query parameter 'name' is required");
             }
-            List<Person> persons = dao.findByDepartement(departement);
-            return Response.ok(persons).build();
+            String dept = departement.trim();
+            String deptKey = NameMatching.looseKey(dept);
+            return responseCache.serve("/persons/department?name=" + dept,
+                    person -> deptKey.equals(NameMatching.looseKey(person.getDepartement())),
+                    () -> dao.findByDepartement(dept), headers);
         } catch (Exception e) {
             return buildErrorResponse("Error searching persons by department: " + e.getMessage());
         }
     }
 
+    /**
+     * Pairs of persons that are probably the same (similar nom/prenom, same departement)
+     * GET /persons/duplicates
+     * GET /persons/duplicates?departement=&minScore=0.9&limit=100
+     */
+    @GET
+    @Path("/duplicates")
+    public Response getDuplicates(@QueryParam("departement") String departement,
+                                  @QueryParam("minScore") String minScore,
+                                  @QueryParam("limit") String limit) {
+        try {
+            DuplicateDetector detector = DuplicateDetector.getInstance();
+            double score;
+            Integer max;
+            try {
+                score = minScore == null || minScore.trim().isEmpty()
+                        ? detector.getThreshold() : Double.parseDouble(minScore.trim());
+                max = parseOptionalInt(limit);
+            } catch (NumberFormatException e) {
+                return buildErrorResponse("minScore and limit must be numbers");
+            }
+            if (score < 0 || score > 1 || (max != null && max <= 0)) {
+                return buildErrorResponse("minScore must be between 0 and 1 and limit must be positive");
+            }
+            String dept = departement == null || departement.trim().isEmpty() ? null : departement.trim();
+
+            List<DuplicateDetector.Match> matches = detector.findDuplicates(dept, score);
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("count", matches.size());
+            response.put("pairs", max == null || matches.size() <= max ? matches : matches.subList(0, max));
+            return Response.ok(response).build();
+        } catch (Exception e) {
+            return buildErrorResponse("Error finding duplicate persons: " + e.getMessage());
+        }
+    }
+
     /**
      * Create new person
      * POST /persons
+     * The response carries X-Possible-Duplicates (ids) when similar persons already exist
      */
     @POST
     public Response create(Person person) {
@@ -117,15 +205,18 @@ public class PersonResource {
                 }
             }
 
-            // Check if email already exists
-            if (dao.existsByEmail(person.getEmail())) {
-                return buildErrorResponse("Email '" + person.getEmail() + "' already exists");
+            // Create unless email already exists
+            try {
+                dao.createIfEmailAvailable(person);
+            } catch (DuplicateEmailException e) {
+                return buildErrorResponse(e.getMessage());
             }
-
-            dao.create(person);
-            return Response.status(Response.Status.CREATED)
-                    .entity(person)
-                    .build();
+            Response.ResponseBuilder created = Response.status(Response.Status.CREATED).entity(person);
+            String duplicates = possibleDuplicates(person);
+            if (duplicates != null) {
+                created.header("X-Possible-Duplicates", duplicates);
+            }
+            return created.build();
         } catch (Exception e) {
             return buildErrorResponse("Error creating person: " + e.getMessage());
         }
@@ -139,7 +230,7 @@ public class PersonResource {
     @Path("/{id}")
     public Response fullUpdate(@PathParam("id") Long id, Person person) {
         try {
-            Person existing = dao.findById(id);
+            Person existing = dao.findByIdForWrite(id);
             if (existing == null) {
                 return Response.status(Response.Status.NOT_FOUND)
                         .entity(createErrorMap("Person with id " + id + " not found"))
@@ -191,7 +282,7 @@ public class PersonResource {
     @Path("/{id}")
     public Response partialUpdate(@PathParam("id") Long id, Map<String, Object> updates) {
         try {
-            Person existing = dao.findById(id);
+            Person existing = dao.findByIdForWrite(id);
             if (existing == null) {
                 return Response.status(Response.Status.NOT_FOUND)
                         .entity(createErrorMap("Person with id " + id + " not found"))
@@ -318,7 +409,7 @@ public class PersonResource {
     @Path("/{id}")
     public Response delete(@PathParam("id") Long id) {
         try {
-            Person existing = dao.findById(id);
+            Person existing = dao.findByIdForWrite(id);
             if (existing == null) {
                 return Response.status(Response.Status.NOT_FOUND)
                         .entity(createErrorMap("Person with id " + id + " not found"))
@@ -338,14 +429,17 @@ public class PersonResource {
     }
 
     /**
-     * Get total count of persons
+     * Get total count of persons, or of one department
      * GET /persons/count
+     * GET /persons/count?departement=value
      */
     @GET
     @Path("/count")
-    public Response getCount() {
+    public Response getCount(@QueryParam("departement") String departement) {
         try {
-            long count = dao.count();
+            long count = departement == null || departement.trim().isEmpty()
+                    ? PersonCounters.getInstance().count()
+                    : PersonCounters.getInstance().countByDepartement(departement.trim());
             Map<String, Long> response = new HashMap<>();
             response.put("count", count);
             return Response.ok(response).build();
@@ -391,6 +485,46 @@ public class PersonResource {
         return validatePersonForCreate(person);
     }
 
+    /**
+     * Whether a person can appear in a name search (mirrors PersonDAO.findByName)
+     */
+    private boolean matchesName(Person person, String term) {
+        if (term.indexOf('%') >= 0 || term.indexOf('_') >= 0) {
+            return true; // LIKE wildcards in the term, don't try to be precise
+        }
+        String termKey = NameMatching.looseKey(term);
+        return contains(person.getName(), termKey)
+                || contains(person.getNom(), termKey)
+                || contains(person.getPrenom(), termKey);
+    }
+
+    private boolean contains(String value, String termKey) {
+        return value != null && NameMatching.looseKey(value).contains(termKey);
+    }
+
+    /**
+     * Comma-separated ids of likely duplicates of a new person, or null.
+     * Only a warning: a failure here never fails the create.
+     */
+    private String possibleDuplicates(Person person) {
+        if (!DuplicateDetector.getInstance().isEnabled()) {
+            return null;
+        }
+        try {
+            StringBuilder ids = new StringBuilder();
+            for (DuplicateDetector.Match match : DuplicateDetector.getInstance().findSimilar(person)) {
+                if (ids.length() > 0) {
+                    ids.append(", ");
+                }
+                ids.append(match.getSecond().getId());
+            }
+            return ids.length() == 0 ? null : ids.toString();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Duplicate check failed for new person " + person.getId(), e);
+            return null;
+        }
+    }
+
     /**
      * Validate email format
      */
@@ -435,6 +569,14 @@ public class PersonResource {
         return Integer.parseInt(value.toString());
     }
 
+    /**
+     * Parse an optional numeric query parameter (null when absent or blank)
+     */
+    private Integer parseOptionalInt(String value) {
+        if (value == null || value.trim().isEmpty()) return null;
+        return Integer.parseInt(value.trim());
+    }
+
     /**
      * Build error response with BAD_REQUEST status
      */
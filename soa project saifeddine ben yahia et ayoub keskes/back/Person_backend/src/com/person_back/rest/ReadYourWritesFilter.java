@@ -0,0 +1,61 @@
+package com.person_back.rest;
+
+import com.person_back.dao.DataSourceRouter;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Carries a client's last write time between its requests so that its reads
+ * stay on the primary during the replica consistency window (read-your-writes),
+ * without moving the reads of other clients.
+ *
+ * The time is returned after a write in the person_last_write cookie and the
+ * X-Person-Last-Write header; clients send back either one.
+ */
+@Provider
+public class ReadYourWritesFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    static final String COOKIE = "person_last_write";
+    static final String HEADER = "X-Person-Last-Write";
+
+    private final DataSourceRouter router = DataSourceRouter.getInstance();
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        String value = request.getHeaderString(HEADER);
+        if (value == null) {
+            Cookie cookie = request.getCookies().get(COOKIE);
+            value = cookie == null ? null : cookie.getValue();
+        }
+        router.beginRequest(parse(value));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Long written = router.endRequest();
+        if (written == null) {
+            return;
+        }
+        int maxAge = (int) ((router.getConsistencyWindowMillis() + 999) / 1000) + 1;
+        response.getHeaders().add(HEADER, written);
+        response.getHeaders().add("Set-Cookie",
+            new NewCookie(COOKIE, String.valueOf(written), "/", null, null, maxAge, false, true));
+    }
+
+    private static Long parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
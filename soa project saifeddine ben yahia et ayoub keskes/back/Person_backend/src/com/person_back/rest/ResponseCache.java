@@ -0,0 +1,335 @@
+package com.person_back.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.person_back.config.AppSettings;
+import com.person_back.dao.DataSourceRouter;
+import com.person_back.dao.PersonChangeListener;
+import com.person_back.dao.PersonDAO;
+import com.person_back.model.Person;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of serialized JSON responses for the hot collection endpoints.
+ *
+ * Entries hold the already encoded bytes (and optionally a gzip copy), are
+ * keyed by route and normalized query parameters, and are evicted in LRU order
+ * once the total size exceeds person.responseCache.maxBytes. Each entry keeps a
+ * predicate telling which persons it may contain, so a PersonDAO write only
+ * drops the entries whose result it can change. For the same reason a result
+ * loaded while writes committed is still cached, unless one of those writes
+ * (before or after the change) matches its predicate.
+ *
+ * A miss is loaded from the primary while any write is within the replica
+ * consistency window, so an entry cached right after an invalidation cannot
+ * come from a replica that has not caught up yet. Entries also expire after
+ * person.responseCache.ttlMillis, which bounds how long a replica lagging
+ * beyond that window can leave a stale entry behind.
+ */
+public class ResponseCache implements PersonChangeListener {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static ResponseCache instance;
+
+    private final boolean enabled;
+    private final boolean gzip;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final DataSourceRouter router = DataSourceRouter.getInstance();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesHeld;
+
+    // Writes seen while loads are running (before and after images, by sequence
+    // number), so a load is not cached only if a write it raced could change it
+    private static final int MAX_LOGGED_WRITES = 10000;
+    private final ArrayDeque<Write> writesDuringLoads = new ArrayDeque<>();
+    private long writeSequence;
+    private int loading;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public static synchronized ResponseCache getInstance() {
+        if (instance == null) {
+            instance = new ResponseCache();
+            PersonDAO.addChangeListener(instance);
+        }
+        return instance;
+    }
+
+    private ResponseCache() {
+        this.enabled = AppSettings.getBoolean("person.responseCache.enabled", true);
+        this.gzip = AppSettings.getBoolean("person.responseCache.gzip", true);
+        this.maxBytes = AppSettings.getLong("person.responseCache.maxBytes", 32L * 1024 * 1024);
+        this.ttlMillis = AppSettings.getLong("person.responseCache.ttlMillis", 30000);
+    }
+
+    /**
+     * Serve a JSON collection from the cache, loading and encoding it on a miss.
+     *
+     * @param key     route plus normalized query parameters
+     * @param matches which persons may appear in the result (used for invalidation)
+     * @param loader  runs the query on a miss
+     */
+    public Response serve(String key, Predicate<Person> matches, Supplier<?> loader, HttpHeaders headers) {
+        boolean acceptsGzip = acceptsGzip(headers);
+        if (!enabled) {
+            return Response.ok(loader.get()).build();
+        }
+
+        Entry entry;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && now >= entry.expiresAt) {
+                entries.remove(key);
+                bytesHeld -= entry.size();
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return toResponse(entry, acceptsGzip);
+        }
+
+        misses.incrementAndGet();
+        long since;
+        synchronized (this) {
+            since = writeSequence;
+            loading++;
+        }
+        boolean cacheable = false;
+        try {
+            Object value = router.isWriteWindowOpen() ? router.onPrimary(loader) : loader.get();
+            entry = encode(value, matches, now + ttlMillis);
+            cacheable = true;
+        } finally {
+            synchronized (this) {
+                if (cacheable && !changedSince(since, matches)) {
+                    put(key, entry);
+                }
+                if (--loading == 0) {
+                    writesDuringLoads.clear();
+                }
+            }
+        }
+        return toResponse(entry, acceptsGzip);
+    }
+
+    /**
+     * Hit rate, bytes held and eviction counters
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytesHeld", bytesHeld);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    @Override
+    public void onCreated(Person person) {
+        invalidate(person, null);
+    }
+
+    @Override
+    public void onUpdated(Person before, Person after) {
+        invalidate(before, after);
+    }
+
+    @Override
+    public void onDeleted(Person person) {
+        invalidate(person, null);
+    }
+
+    private synchronized void invalidate(Person first, Person second) {
+        writeSequence++;
+        if (loading > 0) {
+            writesDuringLoads.addLast(new Write(writeSequence, first, second));
+            if (writesDuringLoads.size() > MAX_LOGGED_WRITES) {
+                writesDuringLoads.removeFirst();
+            }
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.matches.test(first) || (second != null && entry.matches.test(second))) {
+                it.remove();
+                bytesHeld -= entry.size();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Whether a write after sequence number since may have changed a result
+     * of these persons (true when the log no longer reaches back that far)
+     */
+    private boolean changedSince(long since, Predicate<Person> matches) {
+        if (writeSequence == since) {
+            return false;
+        }
+        Write oldest = writesDuringLoads.peekFirst();
+        if (oldest == null || oldest.sequence > since + 1) {
+            return true;
+        }
+        for (Write write : writesDuringLoads) {
+            if (write.sequence > since && write.affects(matches)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void put(String key, Entry entry) {
+        if (entry.size() > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytesHeld -= previous.size();
+        }
+        bytesHeld += entry.size();
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytesHeld > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            bytesHeld -= eldest.size();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Entry encode(Object value, Predicate<Person> matches, long expiresAt) {
+        try {
+            byte[] json = MAPPER.writeValueAsBytes(value);
+            return new Entry(json, gzip ? compress(json) : null, matches, expiresAt);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] compress(byte[] json) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Response toResponse(Entry entry, boolean acceptsGzip) {
+        if (acceptsGzip && entry.gzip != null) {
+            return Response.ok(entry.gzip, MediaType.APPLICATION_JSON_TYPE)
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        return Response.ok(entry.json, MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    private boolean acceptsGzip(HttpHeaders headers) {
+        return headers != null && acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Whether an Accept-Encoding value allows gzip: listed as "gzip" or
+     * "x-gzip" with a non-zero q, or covered by "*" when gzip is not listed
+     * ("gzip;q=0" refuses it)
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0; // an unreadable weight does not opt in
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = gzip == null ? q : Math.max(gzip, q);
+            } else if (name.equals("*")) {
+                any = q;
+            }
+        }
+        if (gzip != null) {
+            return gzip > 0;
+        }
+        return any != null && any > 0;
+    }
+
+    private static final class Write {
+        final long sequence;
+        final Person first;
+        final Person second;
+
+        Write(long sequence, Person first, Person second) {
+            this.sequence = sequence;
+            this.first = first;
+            this.second = second;
+        }
+
+        boolean affects(Predicate<Person> matches) {
+            return matches.test(first) || (second != null && matches.test(second));
+        }
+    }
+
+    private static final class Entry {
+        final byte[] json;
+        final byte[] gzip;
+        final Predicate<Person> matches;
+        final long expiresAt;
+
+        Entry(byte[] json, byte[] gzip, Predicate<Person> matches, long expiresAt) {
+            this.json = json;
+            this.gzip = gzip;
+            this.matches = matches;
+            this.expiresAt = expiresAt;
+        }
+
+        long size() {
+            return json.length + (gzip == null ? 0 : gzip.length);
+        }
+    }
+}
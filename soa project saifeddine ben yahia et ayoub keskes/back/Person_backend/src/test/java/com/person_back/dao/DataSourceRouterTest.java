@@ -0,0 +1,118 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.h2.tools.Server;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read/write splitting on an H2 primary and an H2 replica served over TCP,
+ * so the replica can be stopped and restarted. The replica is not replicated:
+ * it holds one row of its own, which tells which database served a read.
+ */
+public class DataSourceRouterTest {
+
+    private static final long WINDOW_MILLIS = 500;
+    private static final long HEALTH_CHECK_MILLIS = 300;
+
+    private static Server replicaServer;
+    private static int replicaPort;
+    private static String replicaUrl;
+
+    private DataSourceRouter router;
+    private PersonDAO dao;
+
+    @BeforeClass
+    public static void startDatabases() throws Exception {
+        replicaServer = Server.createTcpServer("-tcpPort", "0").start();
+        replicaPort = replicaServer.getPort();
+        replicaUrl = "jdbc:h2:tcp://localhost:" + replicaPort + "/mem:router_replica;MODE=MySQL;DB_CLOSE_DELAY=-1";
+        // Created in this JVM, the TCP server then serves the same in-memory database
+        TestDatabases.execute(TestDatabases.memory("router_replica"), TestDatabases.createPersonsTable(),
+            "INSERT INTO persons (id, name, age, nom, prenom, email) VALUES (1000, 'Replica Only', 40, 'Only', 'Replica', 'replica@example.com')");
+
+        TestDatabases.usePrimary(TestDatabases.memory("router_primary"));
+        System.setProperty("person.replica.urls", replicaUrl);
+        System.setProperty("person.replica.consistencyWindowMillis", String.valueOf(WINDOW_MILLIS));
+        System.setProperty("person.replica.healthCheckMillis", String.valueOf(HEALTH_CHECK_MILLIS));
+    }
+
+    @AfterClass
+    public static void stopDatabases() {
+        PersonDAO.shutdown();
+        replicaServer.stop();
+    }
+
+    @Before
+    public void newClient() {
+        router = DataSourceRouter.getInstance();
+        router.beginRequest(null);
+        dao = new PersonDAO();
+    }
+
+    @Test
+    public void readsGoToTheReplicaWhenNothingWasWritten() {
+        assertTrue(servedByReplica(dao.findAll()));
+        assertEquals("Replica", dao.findById(1000L).getPrenom());
+    }
+
+    @Test
+    public void writerReadsItsWritesFromThePrimaryDuringTheWindow() throws Exception {
+        Person person = TestDatabases.person("Ada", "Lovelace", "ada@example.com");
+        dao.create(person);
+        Long writtenAt = router.endRequest();
+        assertNotNull("the write time is handed back to the client", writtenAt);
+
+        // The same client, sending its write time back
+        router.beginRequest(writtenAt);
+        assertFalse(servedByReplica(dao.findAll()));
+        assertNotNull(dao.findById(person.getId()));
+
+        // Another client keeps reading the replica, except the person just written
+        router.beginRequest(null);
+        assertTrue(servedByReplica(dao.findAll()));
+        assertNotNull(dao.findById(person.getId()));
+
+        // Once the window has passed, the writer is back on the replica
+        TimeUnit.MILLISECONDS.sleep(WINDOW_MILLIS + 100);
+        router.beginRequest(writtenAt);
+        assertTrue(servedByReplica(dao.findAll()));
+        assertNull(dao.findById(person.getId()));
+    }
+
+    @Test
+    public void failedReplicaFallsBackToThePrimaryAndReturnsToRotation() throws Exception {
+        assertTrue(servedByReplica(dao.findAll()));
+
+        replicaServer.stop();
+        try {
+            List<Person> persons = dao.findAll();
+            assertFalse("a failed replica read is retried on the primary", servedByReplica(persons));
+            assertFalse(servedByReplica(dao.findAll()));
+        } finally {
+            replicaServer = Server.createTcpServer("-tcpPort", String.valueOf(replicaPort)).start();
+        }
+
+        long deadline = System.currentTimeMillis() + 20 * HEALTH_CHECK_MILLIS;
+        while (!servedByReplica(dao.findAll())) {
+            assertTrue("the health check brings the replica back", System.currentTimeMillis() < deadline);
+            TimeUnit.MILLISECONDS.sleep(HEALTH_CHECK_MILLIS / 2);
+        }
+    }
+
+    private static boolean servedByReplica(List<Person> persons) {
+        for (Person person : persons) {
+            if (person.getId() == 1000L) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
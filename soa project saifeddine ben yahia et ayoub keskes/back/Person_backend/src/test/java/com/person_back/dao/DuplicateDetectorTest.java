@@ -0,0 +1,123 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Duplicate detection on an H2 database: part of the persons is indexed at
+ * start, the rest through change events
+ */
+public class DuplicateDetectorTest {
+
+    private static PersonDAO dao;
+    private static DuplicateDetector detector;
+
+    private static Person keskes;
+    private static Person benYahia;
+    private static Person muller;
+    private static Person lovelace;
+
+    @BeforeClass
+    public static void startDetector() {
+        TestDatabases.usePrimary(TestDatabases.memory("duplicates"));
+        System.setProperty("person.duplicates.enabled", "true");
+        dao = new PersonDAO();
+        keskes = create("Ayoub", "Keskes", "IT");
+        benYahia = create("Saifeddine", "Ben Yahia", "IT");
+        muller = create("Hans", "Müller", "RH");
+        lovelace = create("Ada", "Lovelace", "IT");
+        create("Grace", "Hopper", "IT");
+
+        detector = DuplicateDetector.getInstance();
+        detector.start();
+    }
+
+    @AfterClass
+    public static void stopDetector() {
+        detector.stop();
+        PersonDAO.shutdown();
+    }
+
+    @Test
+    public void spellingSpacingAccentsAndSwappedNamesAreFound() {
+        assertSimilar(create("Ayoub", "Keskess", "IT"), keskes);
+        assertSimilar(create("Saif Eddine", "Benyahia", "it"), benYahia);
+        assertSimilar(create("Hans", "Muller", "RH"), muller);
+        assertSimilar(create("Lovelace", "Ada", "IT"), lovelace);
+    }
+
+    @Test
+    public void differentDepartementsAreNotMatched() {
+        Person hopperRh = create("Grace", "Hopper", "RH");
+        assertTrue(detector.findSimilar(hopperRh).isEmpty());
+
+        for (DuplicateDetector.Match match : detector.findDuplicates("IT", detector.getThreshold())) {
+            assertFalse(match.getFirst().getId().equals(hopperRh.getId()) || match.getSecond().getId().equals(hopperRh.getId()));
+        }
+    }
+
+    @Test
+    public void indexFollowsUpdatesAndDeletes() {
+        Person turing = create("Alan", "Turing", "IT");
+        Person copy = create("Alan", "Turring", "IT");
+        assertSimilar(copy, turing);
+
+        copy.setDepartement("Marketing");
+        dao.update(copy);
+        assertTrue(detector.findSimilar(copy).isEmpty());
+        copy.setDepartement("IT");
+        dao.update(copy);
+        assertSimilar(copy, turing);
+
+        dao.delete(turing.getId());
+        assertTrue(detector.findSimilar(copy).isEmpty());
+        assertFalse(pairs(detector.findDuplicates(null, 0.5)).contains(turing.getId() + "-" + copy.getId()));
+    }
+
+    @Test
+    public void fullScanReportsEachPairOnceMostSimilarFirst() {
+        Person first = create("Edsger", "Dijkstra", "Recherche");
+        Person second = create("Edsger", "Dijkstra", "Recherche");
+        Person third = create("Edsgar", "Dijkstra", "Recherche");
+
+        List<DuplicateDetector.Match> matches = detector.findDuplicates("recherche", detector.getThreshold());
+        assertEquals(3, matches.size());
+        assertEquals(first.getId(), matches.get(0).getFirst().getId());
+        assertEquals(second.getId(), matches.get(0).getSecond().getId());
+        assertEquals(1.0, matches.get(0).getScore(), 0.0);
+        assertTrue(pairs(matches).contains(first.getId() + "-" + third.getId()));
+        assertTrue(matches.get(2).getScore() < 1.0);
+    }
+
+    private static void assertSimilar(Person person, Person expected) {
+        List<Long> ids = new ArrayList<>();
+        for (DuplicateDetector.Match match : detector.findSimilar(person)) {
+            ids.add(match.getSecond().getId());
+            assertTrue(match.getScore() >= detector.getThreshold());
+        }
+        assertTrue(person.getNom() + " " + person.getPrenom() + " gave " + ids, ids.contains(expected.getId()));
+    }
+
+    private static List<String> pairs(List<DuplicateDetector.Match> matches) {
+        List<String> pairs = new ArrayList<>();
+        for (DuplicateDetector.Match match : matches) {
+            pairs.add(match.getFirst().getId() + "-" + match.getSecond().getId());
+        }
+        return pairs;
+    }
+
+    private static Person create(String prenom, String nom, String departement) {
+        Person person = TestDatabases.person(prenom, nom, prenom.toLowerCase().replace(' ', '.') + "." + nom.toLowerCase().replace(' ', '.')
+            + "." + System.nanoTime() + "@example.com");
+        person.setDepartement(departement);
+        dao.create(person);
+        return person;
+    }
+}
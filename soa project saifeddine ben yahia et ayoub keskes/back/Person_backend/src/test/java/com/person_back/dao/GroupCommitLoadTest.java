@@ -0,0 +1,145 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent createIfEmailAvailable calls with a commit per request, then
+ * with group commit, on an H2 file database under target/. Prints throughput
+ * and latency for each thread count.
+ *
+ * Small by default; for the numbers of a real run:
+ * mvn test -Dtest=GroupCommitLoadTest -Dperson.loadTest.creates=5000 -Dperson.loadTest.threads=1,16,64
+ */
+public class GroupCommitLoadTest {
+
+    // Hibernate's built-in connection pool, which per-request commits run out of beyond this
+    private static final int POOL_SIZE = 20;
+
+    private static final int CREATES = Integer.getInteger("person.loadTest.creates", 300);
+    private static final List<String> THREADS =
+        Arrays.asList(System.getProperty("person.loadTest.threads", "1,16").split("\\s*,\\s*"));
+
+    private static String url;
+
+    @BeforeClass
+    public static void useFileDatabase() {
+        File directory = new File("target/group-commit-load");
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        url = "jdbc:h2:file:" + directory.getAbsolutePath() + "/persons;MODE=MySQL";
+        TestDatabases.usePrimary(url);
+    }
+
+    @AfterClass
+    public static void closeDatabase() {
+        System.clearProperty("person.groupCommit.enabled");
+        PersonDAO.shutdown();
+    }
+
+    @Test
+    public void groupCommitCreatesEveryPersonUnderLoad() throws Exception {
+        // The group commit writer is created on first use and kept, so per-request runs go first
+        System.setProperty("person.groupCommit.enabled", "false");
+        for (String threads : THREADS) {
+            Run run = run("request", Integer.parseInt(threads));
+            if (run.threads < POOL_SIZE) {
+                assertEquals(run.toString(), 0, run.failures);
+            }
+        }
+        System.setProperty("person.groupCommit.enabled", "true");
+        for (String threads : THREADS) {
+            Run run = run("group", Integer.parseInt(threads));
+            assertEquals(run.toString(), 0, run.failures);
+        }
+    }
+
+    private static Run run(String mode, int threads) throws Exception {
+        PersonDAO dao = new PersonDAO();
+        // Every run starts from an empty table, the email checks scan it
+        if (dao.count() > 0) {
+            TestDatabases.execute(url, "DELETE FROM persons");
+        }
+        long[] latencies = new long[CREATES];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = next.getAndIncrement(); i < CREATES; i = next.getAndIncrement()) {
+                    Person person = TestDatabases.person("Load", "Test",
+                        mode + "-" + threads + "-" + i + "@example.com");
+                    long started = System.nanoTime();
+                    try {
+                        dao.createIfEmailAvailable(person);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - started;
+                }
+            });
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        executor.shutdown();
+        assertTrue("the run finished", executor.awaitTermination(5, TimeUnit.MINUTES));
+        long elapsed = System.nanoTime() - started;
+
+        Run run = new Run(mode, threads, elapsed, latencies, failures.get());
+        System.out.println(run);
+        assertEquals(run.toString(), CREATES - run.failures, dao.count());
+        return run;
+    }
+
+    private static final class Run {
+        final String mode;
+        final int threads;
+        final long elapsedNanos;
+        final long[] latencies;
+        final int failures;
+
+        Run(String mode, int threads, long elapsedNanos, long[] latencies, int failures) {
+            this.mode = mode;
+            this.threads = threads;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.failures = failures;
+        }
+
+        private double percentileMillis(double percentile) {
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-7s commit, %2d threads: %5.0f/s, p50 %.1f ms, p99 %.1f ms, %d/%d failed",
+                mode, threads, latencies.length / (elapsedNanos / 1e9),
+                percentileMillis(0.50), percentileMillis(0.99), failures, latencies.length);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.person_back.dao;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NameMatchingTest {
+
+    @Test
+    public void normalizeKeepsLatinLettersWithoutAccents() {
+        assertEquals("BENYAHIA", NameMatching.normalize("Ben-Yahia"));
+        assertEquals("BENYAHIA", NameMatching.normalize("ben yahia"));
+        assertEquals("MULLER", NameMatching.normalize("Müller"));
+        assertEquals("", NameMatching.normalize(null));
+    }
+
+    @Test
+    public void soundexFollowsTheAmericanRules() {
+        assertEquals("R163", NameMatching.soundex("ROBERT"));
+        assertEquals("R163", NameMatching.soundex("RUPERT"));
+        assertEquals("T522", NameMatching.soundex("TYMCZAK"));
+        assertEquals("P236", NameMatching.soundex("PFISTER"));
+        // H does not separate the S and C codes
+        assertEquals("A261", NameMatching.soundex("ASHCRAFT"));
+        assertEquals(NameMatching.soundex("KESKES"), NameMatching.soundex("KESKESS"));
+        assertEquals("", NameMatching.soundex(""));
+    }
+
+    @Test
+    public void jaroWinklerMatchesReferenceValues() {
+        assertEquals(0.961, NameMatching.jaroWinkler("MARTHA", "MARHTA"), 0.001);
+        assertEquals(0.813, NameMatching.jaroWinkler("DIXON", "DICKSONX"), 0.001);
+        assertEquals(1.0, NameMatching.jaroWinkler("KESKES", "KESKES"), 0.0);
+        assertEquals(0.0, NameMatching.jaroWinkler("", "KESKES"), 0.0);
+        assertEquals(1.0, NameMatching.nameSimilarity("LOVELACE", "ADA", "ADA", "LOVELACE"), 0.0);
+    }
+
+    @Test
+    public void blockingKeyGroupsLikelyDuplicates() {
+        String keskes = NameMatching.blockingKey("Keskes", "Ayoub", "IT");
+        assertEquals(keskes, NameMatching.blockingKey("Keskess", "Ayoub", "IT"));
+        assertEquals(keskes, NameMatching.blockingKey("Ayoub", "Keskes", "IT"));
+        assertEquals(keskes, NameMatching.blockingKey("Keskes", "Ayoub", "it "));
+        assertEquals(NameMatching.blockingKey("Ben Yahia", "Saifeddine", "IT"),
+            NameMatching.blockingKey("Benyahia", "Saif Eddine", "IT"));
+        assertEquals(NameMatching.blockingKey("Müller", "Hans", null), NameMatching.blockingKey("Muller", "Hans", null));
+
+        assertNotEquals(keskes, NameMatching.blockingKey("Keskes", "Ayoub", "RH"));
+        assertNotEquals(NameMatching.blockingKey("Keskes", "Ayoub", "Site 1"), NameMatching.blockingKey("Keskes", "Ayoub", "Site 2"));
+        assertNotEquals(NameMatching.blockingKey("Keskes", "Ayoub", null), NameMatching.blockingKey("Keskes", "Ayoub", ""));
+        // Without Latin letters the names are blocked on their text
+        assertNotEquals(NameMatching.blockingKey("李", "明", "IT"), NameMatching.blockingKey("王", "明", "IT"));
+    }
+
+    @Test
+    public void collationKeyIgnoresCaseAccentsAndTrailingSpaces() {
+        assertEquals("ingenierie", NameMatching.collationKey("Ingénierie "));
+        assertEquals("ingenierie", NameMatching.collationKey("INGENIERIE"));
+        assertEquals(" it", NameMatching.collationKey(" IT"));
+        assertNull(NameMatching.collationKey(null));
+    }
+
+    @Test
+    public void looseKeyIsNeverStricterThanACollation() {
+        assertEquals(NameMatching.looseKey("Straße"), NameMatching.looseKey("Strasse"));
+        assertEquals(NameMatching.looseKey("Straße"), NameMatching.looseKey("STRASE"));
+        assertEquals(NameMatching.looseKey("Ærø"), NameMatching.looseKey("aero"));
+        assertEquals(NameMatching.looseKey("Ingénierie "), NameMatching.looseKey("ingenierie"));
+        assertTrue(NameMatching.looseKey("Ingénierie").contains(NameMatching.looseKey("GÉN")));
+        assertNull(NameMatching.looseKey(null));
+    }
+}
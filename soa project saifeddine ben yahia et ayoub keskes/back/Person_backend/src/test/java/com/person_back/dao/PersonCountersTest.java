@@ -0,0 +1,158 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * In-memory counters on an H2 database: department folding, change events,
+ * and reconciliation while writes keep coming
+ */
+public class PersonCountersTest {
+
+    private static final String URL = TestDatabases.memory("counters");
+    private static final AtomicInteger EMAILS = new AtomicInteger();
+
+    private static PersonCounters counters;
+
+    private PersonDAO dao;
+
+    @BeforeClass
+    public static void startCounters() {
+        TestDatabases.usePrimary(URL);
+        System.setProperty("person.counters.reconcileMillis", "3600000");
+        new PersonDAO(); // creates the schema
+        counters = PersonCounters.getInstance();
+        counters.start();
+    }
+
+    @AfterClass
+    public static void stopCounters() {
+        counters.stop();
+        PersonDAO.shutdown();
+    }
+
+    @Before
+    public void emptyTable() throws SQLException {
+        dao = new PersonDAO();
+        TestDatabases.execute(URL, "DELETE FROM persons");
+        counters.reconcile();
+        assertEquals(0, counters.count());
+    }
+
+    @Test
+    public void reconcileFoldsSpellingsOfADepartementAndReportsDrift() throws SQLException {
+        insertDirectly("IT", "it", "It ", "Ingénierie", "INGENIERIE", null);
+
+        counters.reconcile();
+
+        assertEquals(6, counters.count());
+        assertEquals(3, counters.countByDepartement("iT"));
+        assertEquals(2, counters.countByDepartement("ingénierie"));
+        assertEquals(0, counters.countByDepartement("Marketing"));
+        assertEquals(6L, counters.getStats().get("lastDrift"));
+    }
+
+    @Test
+    public void changeEventsAdjustTheCounters() {
+        Person it = create("IT");
+        Person lowerIt = create("it");
+        create("Ingénierie");
+        create(null);
+
+        lowerIt.setDepartement("Marketing");
+        dao.update(lowerIt);
+        it.setDepartement("It ");
+        dao.update(it);
+        dao.delete(it.getId());
+
+        assertEquals(3, counters.count());
+        assertEquals(0, counters.countByDepartement("IT"));
+        assertEquals(1, counters.countByDepartement("marketing"));
+        assertEquals(1, counters.countByDepartement("INGENIERIE"));
+
+        counters.reconcile();
+        assertEquals(0L, counters.getStats().get("lastDrift"));
+        assertEquals(3, counters.count());
+    }
+
+    @Test
+    public void quietDepartementsAreCorrectedUnderSteadyWrites() throws Exception {
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread writer = new Thread(() -> {
+                while (writing.get()) {
+                    try {
+                        create("IT");
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        try {
+            // Drift the counters cannot know about
+            insertDirectly("Marketing", "Marketing", "marketing");
+
+            for (int round = 0; round < 20 && counters.countByDepartement("Marketing") != 3; round++) {
+                counters.reconcile();
+            }
+            assertEquals("corrected while IT keeps being written", 3, counters.countByDepartement("Marketing"));
+        } finally {
+            writing.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        assertEquals(0, failures.get());
+
+        // Concurrent rounds neither lost nor double counted a write
+        assertEquals(countRows("departement = 'IT'"), counters.countByDepartement("IT"));
+        assertEquals(countRows("1 = 1"), counters.count());
+        counters.reconcile();
+        assertEquals(0L, counters.getStats().get("lastDrift"));
+    }
+
+    private Person create(String departement) {
+        Person person = TestDatabases.person("Count", "Er", "count" + EMAILS.incrementAndGet() + "@example.com");
+        person.setDepartement(departement);
+        dao.create(person);
+        return person;
+    }
+
+    private static void insertDirectly(String... departements) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        for (String departement : departements) {
+            statements.add("INSERT INTO persons (name, age, nom, prenom, email, departement) VALUES ('Direct Insert', 30, 'Insert', 'Direct', '"
+                + "direct" + EMAILS.incrementAndGet() + "@example.com', " + (departement == null ? "NULL" : "'" + departement + "'") + ")");
+        }
+        TestDatabases.execute(URL, statements.toArray(new String[0]));
+    }
+
+    private static long countRows(String condition) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(URL, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM persons WHERE " + condition)) {
+            rows.next();
+            return rows.getLong(1);
+        }
+    }
+}
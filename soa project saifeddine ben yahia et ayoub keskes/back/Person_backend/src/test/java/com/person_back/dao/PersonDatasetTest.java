@@ -0,0 +1,83 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Warm-up from a snapshot that the database has moved past, on an H2 database
+ */
+public class PersonDatasetTest {
+
+    private static final File SNAPSHOT = new File("target/person-dataset/snapshot.bin");
+
+    @BeforeClass
+    public static void useSnapshot() {
+        SNAPSHOT.delete();
+        TestDatabases.usePrimary(TestDatabases.memory("dataset"));
+        System.setProperty("person.snapshot.enabled", "true");
+        System.setProperty("person.snapshot.path", SNAPSHOT.getAbsolutePath());
+        System.setProperty("person.snapshot.catchUpMarginMillis", "0");
+    }
+
+    @AfterClass
+    public static void stopDataset() {
+        PersonDataset.getInstance().stop();
+        PersonDAO.shutdown();
+    }
+
+    @Test
+    public void warmUpCatchesUpWithChangesMadeAfterTheSnapshot() throws Exception {
+        PersonDAO dao = new PersonDAO();
+        Person kept = TestDatabases.person("Ada", "Lovelace", "ada@example.com");
+        Person updated = TestDatabases.person("Grace", "Hopper", "grace@example.com");
+        Person deleted = TestDatabases.person("Alan", "Turing", "alan@example.com");
+        dao.create(kept);
+        dao.create(updated);
+        dao.create(deleted);
+        Path path = SNAPSHOT.toPath();
+        long highWaterMark = PersonSnapshot.write(path, dao.findAll());
+
+        // Changes the snapshot does not have, made while the dataset is not listening
+        TimeUnit.MILLISECONDS.sleep(5);
+        updated.setPoste("Admiral");
+        dao.update(updated);
+        assertTrue(updated.getLastModified() > highWaterMark);
+        dao.delete(deleted.getId());
+        Person created = TestDatabases.person("Edsger", "Dijkstra", "edsger@example.com");
+        dao.create(created);
+
+        PersonDataset dataset = PersonDataset.getInstance();
+        dataset.start();
+
+        assertTrue(dataset.isLoaded());
+        Map<Long, Person> persons = new HashMap<>();
+        for (Person person : dataset.getPersons()) {
+            persons.put(person.getId(), person);
+        }
+        assertEquals(3, persons.size());
+        assertTrue(persons.containsKey(kept.getId()));
+        assertEquals("Admiral", persons.get(updated.getId()).getPoste());
+        assertFalse("dropped by removeDeleted", persons.containsKey(deleted.getId()));
+        assertTrue(persons.containsKey(created.getId()));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> warmUp = (Map<String, Object>) dataset.getStats().get("lastWarmUp");
+        assertEquals(SNAPSHOT.getAbsolutePath(), warmUp.get("snapshot"));
+        assertEquals(3, warmUp.get("snapshotRows"));
+        assertEquals(1, warmUp.get("removedRows"));
+
+        // Kept current by change events once started
+        dao.delete(kept.getId());
+        assertEquals(2, dataset.getPersons().size());
+    }
+}
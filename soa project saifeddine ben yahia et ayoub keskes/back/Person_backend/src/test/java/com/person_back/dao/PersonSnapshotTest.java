@@ -0,0 +1,130 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PersonSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void personsSurviveARoundTrip() throws IOException {
+        Person full = TestDatabases.person("Zoé", "Müller", "zoe@example.com");
+        full.setId(7L);
+        full.setTelephone("+216 20 000 000");
+        full.setPoste("Développeuse");
+        full.setDateEmbauche("2024-09-01");
+        full.setLastModified(1700000000000L);
+        Person sparse = new Person();
+        sparse.setId(8L);
+        sparse.setEmail("sparse@example.com");
+        Path path = folder.getRoot().toPath().resolve("snapshot.bin");
+
+        long highWaterMark = PersonSnapshot.write(path, Arrays.asList(full, sparse));
+        PersonSnapshot snapshot = PersonSnapshot.read(path);
+
+        assertEquals(1700000000000L, highWaterMark);
+        assertEquals(highWaterMark, snapshot.getHighWaterMark());
+        List<Person> persons = snapshot.getPersons();
+        assertEquals(2, persons.size());
+        assertSamePerson(full, persons.get(0));
+        Person read = persons.get(1);
+        assertEquals(Long.valueOf(8), read.getId());
+        assertNull(read.getAge());
+        assertNull(read.getLastModified());
+        assertNull(read.getName());
+        assertNull(read.getDepartement());
+        assertEquals("sparse@example.com", read.getEmail());
+    }
+
+    @Test
+    public void emptySnapshotHasNoHighWaterMark() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("empty.bin");
+        assertEquals(Long.MIN_VALUE, PersonSnapshot.write(path, Collections.<Person>emptyList()));
+        PersonSnapshot snapshot = PersonSnapshot.read(path);
+        assertEquals(Long.MIN_VALUE, snapshot.getHighWaterMark());
+        assertTrue(snapshot.getPersons().isEmpty());
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        Path path = writeSample();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 20);
+        }
+        assertRejected(path, "");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(10);
+        }
+        assertRejected(path, "truncated");
+    }
+
+    @Test
+    public void checksumMismatchIsRejected() throws IOException {
+        Path path = writeSample();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            // A byte of the first record's id
+            file.seek(28 + 7);
+            int value = file.read();
+            file.seek(28 + 7);
+            file.write(value ^ 0x01);
+        }
+        assertRejected(path, "checksum");
+    }
+
+    @Test
+    public void otherVersionIsRejected() throws IOException {
+        Path path = writeSample();
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(4);
+            file.writeInt(2);
+        }
+        assertRejected(path, "version 2");
+    }
+
+    private Path writeSample() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("sample.bin");
+        Person person = TestDatabases.person("Ada", "Lovelace", "ada@example.com");
+        person.setId(1L);
+        person.setLastModified(1L);
+        PersonSnapshot.write(path, Collections.singletonList(person));
+        assertTrue(Files.size(path) > 28 + 8);
+        return path;
+    }
+
+    private static void assertSamePerson(Person expected, Person actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getAge(), actual.getAge());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getNom(), actual.getNom());
+        assertEquals(expected.getPrenom(), actual.getPrenom());
+        assertEquals(expected.getEmail(), actual.getEmail());
+        assertEquals(expected.getTelephone(), actual.getTelephone());
+        assertEquals(expected.getPoste(), actual.getPoste());
+        assertEquals(expected.getDepartement(), actual.getDepartement());
+        assertEquals(expected.getDateEmbauche(), actual.getDateEmbauche());
+    }
+
+    private static void assertRejected(Path path, String reason) {
+        try {
+            PersonSnapshot.read(path);
+            fail("the snapshot is unusable");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(reason));
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sharding on three in-memory H2 shards, with a fourth H2 database as the
+ * routing database (the personPU primary). The shards compare strings
+ * ignoring case and accents, like MySQL's *_ci collations.
+ */
+public class ShardedPersonStoreTest {
+
+    private static final String ROUTING_URL = TestDatabases.memory("shard_routing");
+    private static final List<String> SHARD_URLS = Arrays.asList(
+        TestDatabases.memory("shard_0"), TestDatabases.memory("shard_1"), TestDatabases.memory("shard_2"));
+
+    private PersonDAO dao;
+
+    @BeforeClass
+    public static void useShards() throws SQLException {
+        for (String url : SHARD_URLS) {
+            // Only allowed before the first table is created
+            TestDatabases.execute(url, "SET COLLATION ENGLISH STRENGTH PRIMARY");
+        }
+        TestDatabases.usePrimary(ROUTING_URL);
+        System.setProperty("person.shard.urls", String.join(",", SHARD_URLS));
+    }
+
+    @AfterClass
+    public static void closeShards() {
+        PersonDAO.shutdown();
+    }
+
+    @Before
+    public void emptyDatabases() throws SQLException {
+        dao = new PersonDAO();
+        TestDatabases.execute(ROUTING_URL, "DELETE FROM person_routing");
+        for (String url : SHARD_URLS) {
+            TestDatabases.execute(url, "DELETE FROM persons");
+        }
+    }
+
+    @Test
+    public void routingIndexLivesOnlyOnTheRoutingDatabase() throws SQLException {
+        assertTrue(hasTable(ROUTING_URL, "PERSON_ROUTING"));
+        for (String url : SHARD_URLS) {
+            assertTrue(hasTable(url, "PERSONS"));
+            assertFalse(url, hasTable(url, "PERSON_ROUTING"));
+        }
+    }
+
+    @Test
+    public void globalIdsSpreadOverTheShards() throws SQLException {
+        List<Person> created = createPersons(30);
+
+        Set<Long> ids = new HashSet<>();
+        for (Person person : created) {
+            assertTrue("ids are unique across shards", ids.add(person.getId()));
+        }
+        int total = 0;
+        for (String url : SHARD_URLS) {
+            int rows = countRows(url);
+            assertTrue("every shard holds persons", rows > 0);
+            total += rows;
+        }
+        assertEquals(30, total);
+        for (Person person : created) {
+            assertEquals(person.getEmail(), dao.findById(person.getId()).getEmail());
+        }
+        assertEquals(30, dao.count());
+    }
+
+    @Test
+    public void duplicateEmailIsRejectedAcrossShards() {
+        Person first = TestDatabases.person("Ada", "Lovelace", "ada@example.com");
+        dao.createIfEmailAvailable(first);
+
+        assertTrue(dao.existsByEmail("ADA@example.com"));
+        assertFalse(dao.existsByEmailExcludingId("ada@example.com", first.getId()));
+        // Whichever shard the second id hashes to, the routing index sees the email
+        for (int i = 0; i < SHARD_URLS.size() * 3; i++) {
+            try {
+                dao.createIfEmailAvailable(TestDatabases.person("Ada", "Byron", "Ada@Example.com"));
+                fail("the email is already taken");
+            } catch (DuplicateEmailException expected) {
+                // expected
+            }
+            dao.create(TestDatabases.person("Other", "Person" + i, "other" + i + "@example.com"));
+        }
+        assertEquals(1 + SHARD_URLS.size() * 3, dao.count());
+    }
+
+    @Test
+    public void deleteReleasesTheEmail() {
+        Person person = TestDatabases.person("Grace", "Hopper", "grace@example.com");
+        dao.create(person);
+
+        dao.delete(person.getId());
+
+        assertNull(dao.findById(person.getId()));
+        assertFalse(dao.existsByEmail("grace@example.com"));
+        dao.createIfEmailAvailable(TestDatabases.person("Grace", "Hopper", "grace@example.com"));
+    }
+
+    @Test
+    public void emailChangeMovesTheReservation() {
+        Person person = TestDatabases.person("Alan", "Turing", "alan@example.com");
+        dao.create(person);
+        Person other = TestDatabases.person("Alonzo", "Church", "alonzo@example.com");
+        dao.create(other);
+
+        person.setEmail("turing@example.com");
+        dao.update(person);
+        assertFalse(dao.existsByEmail("alan@example.com"));
+        assertTrue(dao.existsByEmail("turing@example.com"));
+
+        other.setEmail("TURING@example.com");
+        try {
+            dao.update(other);
+            fail("the new email is already taken");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof DuplicateEmailException);
+        }
+        assertEquals("alonzo@example.com", dao.findById(other.getId()).getEmail());
+    }
+
+    @Test
+    public void updateOfARowDeletedOnItsShardInsertsNothing() throws SQLException {
+        Person person = TestDatabases.person("Edsger", "Dijkstra", "edsger@example.com");
+        dao.create(person);
+        for (String url : SHARD_URLS) {
+            TestDatabases.execute(url, "DELETE FROM persons WHERE id = " + person.getId());
+        }
+
+        person.setPoste("Professor");
+        try {
+            dao.update(person);
+            fail("the person does not exist anymore");
+        } catch (RuntimeException expected) {
+            // expected
+        }
+        for (String url : SHARD_URLS) {
+            assertEquals(0, countRows(url));
+        }
+    }
+
+    @Test
+    public void pagesAreMergedNewestFirst() {
+        List<Long> ids = new ArrayList<>();
+        for (Person person : createPersons(23)) {
+            ids.add(person.getId());
+        }
+        ids.sort((a, b) -> Long.compare(b, a));
+
+        List<Long> paged = new ArrayList<>();
+        for (int page = 1; page <= 5; page++) {
+            List<Person> persons = dao.findWithPagination(page, 5);
+            assertEquals(page < 5 ? 5 : 3, persons.size());
+            for (Person person : persons) {
+                paged.add(person.getId());
+            }
+        }
+        assertEquals(ids, paged);
+    }
+
+    @Test
+    public void filteredQueriesAreMergedInSortOrder() {
+        List<Person> created = createPersons(40);
+
+        PersonFilter filter = new PersonFilter();
+        filter.setMinAge(22);
+        filter.setSort("-age");
+        filter.setOffset(4);
+        filter.setLimit(10);
+
+        List<Person> expected = new ArrayList<>();
+        for (Person person : created) {
+            if (person.getAge() >= 22) {
+                expected.add(person);
+            }
+        }
+        expected.sort(filter.getComparator());
+        expected = expected.subList(4, 14);
+
+        List<Person> merged = dao.findByFilter(filter);
+        assertEquals(ids(expected), ids(merged));
+    }
+
+    @Test
+    public void stringSortsAreMergedInCollationOrder() {
+        String[] noms = {"Éric", "eric", "Fabien", "ERIC", "Émile", "fabien", "Zoé", "zoe", "Ånder", "andré", "Andre"};
+        List<Person> created = new ArrayList<>();
+        for (int i = 0; i < noms.length * 3; i++) {
+            Person person = TestDatabases.person("Person" + i, noms[i % noms.length], "sorted" + i + "@example.com");
+            dao.create(person);
+            created.add(person);
+        }
+        // The shards' collation, with the query's id tie-break
+        Collator collator = Collator.getInstance(Locale.ENGLISH);
+        collator.setStrength(Collator.PRIMARY);
+        Comparator<Person> byNom = Comparator.comparing(Person::getNom, collator);
+        Comparator<Person> newestFirst = Comparator.comparing(Person::getId, Comparator.reverseOrder());
+
+        for (String sort : new String[] {"nom", "-nom"}) {
+            PersonFilter filter = new PersonFilter();
+            filter.setSort(sort);
+            filter.setOffset(5);
+            filter.setLimit(20);
+
+            List<Person> expected = new ArrayList<>(created);
+            expected.sort((sort.startsWith("-") ? byNom.reversed() : byNom).thenComparing(newestFirst));
+            assertEquals(sort, ids(expected.subList(5, 25)), ids(dao.findByFilter(filter)));
+        }
+    }
+
+    @Test
+    public void distinctValuesAreMergedInCollationOrder() {
+        String[] departements = {"IT", "Marketing", "it", "Ingénierie", "ingenierie ", "INGÉNIERIE"};
+        for (int i = 0; i < departements.length * 3; i++) {
+            Person person = TestDatabases.person("Person" + i, "Dept", "dept" + i + "@example.com");
+            person.setDepartement(departements[i % departements.length]);
+            dao.create(person);
+        }
+
+        List<String> merged = dao.getAllDepartements();
+        List<String> keys = new ArrayList<>();
+        for (String departement : merged) {
+            keys.add(NameMatching.collationKey(departement));
+        }
+        assertEquals(merged.toString(), Arrays.asList("ingenierie", "it", "marketing"), keys);
+    }
+
+    private List<Person> createPersons(int count) {
+        List<Person> created = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Person person = TestDatabases.person("Person" + i, "Shard", "person" + i + "@example.com");
+            // Few distinct ages, so sorting by age relies on the id tie-break
+            person.setAge(20 + i % 7);
+            dao.create(person);
+            created.add(person);
+        }
+        return created;
+    }
+
+    private static List<Long> ids(List<Person> persons) {
+        List<Long> ids = new ArrayList<>();
+        for (Person person : persons) {
+            ids.add(person.getId());
+        }
+        return ids;
+    }
+
+    private static boolean hasTable(String url, String table) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             ResultSet tables = connection.getMetaData().getTables(null, null, table, null)) {
+            return tables.next();
+        }
+    }
+
+    private static int countRows(String url) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM persons")) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+}
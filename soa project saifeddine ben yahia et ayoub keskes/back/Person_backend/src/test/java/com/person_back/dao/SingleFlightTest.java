@@ -0,0 +1,55 @@
+package com.person_back.dao;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void joinedCallersGetTheLeadersExceptionType() throws Exception {
+        SingleFlight flight = new SingleFlight(true, 5000);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Object> leader = CompletableFuture.supplyAsync(() -> flight.execute("key", () -> {
+            loading.countDown();
+            await(release);
+            throw new DuplicateEmailException("ada@example.com");
+        }));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> joined = CompletableFuture.supplyAsync(() -> flight.execute("key", () -> {
+            throw new AssertionError("the load in flight is shared");
+        }));
+        while (((Number) flight.getStats().get("savedCalls")).longValue() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        release.countDown();
+
+        assertTrue(failure(leader) instanceof DuplicateEmailException);
+        assertTrue(failure(joined) instanceof DuplicateEmailException);
+        assertSame(failure(leader), failure(joined));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<Object> call) {
+        try {
+            call.join();
+            fail("the load failed");
+            return null;
+        } catch (RuntimeException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.person_back.dao;
+
+import com.person_back.model.Person;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Embedded H2 databases (MySQL mode) standing in for the MySQL primary,
+ * replicas and shards in tests
+ */
+final class TestDatabases {
+
+    private TestDatabases() {
+    }
+
+    /**
+     * URL of an in-memory database that lives until the JVM exits
+     */
+    static String memory(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * Point personPU (and the replica and shard factories built from it) at H2
+     */
+    static void usePrimary(String url) {
+        System.setProperty("person.db.driver", "org.h2.Driver");
+        System.setProperty("person.db.url", url);
+        System.setProperty("person.db.user", "sa");
+        System.setProperty("person.db.password", "");
+    }
+
+    /**
+     * Run statements directly on a database, bypassing the DAO
+     */
+    static void execute(String url, String... statements) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Same columns as the persons table Hibernate creates
+     */
+    static String createPersonsTable() {
+        return "CREATE TABLE IF NOT EXISTS persons (id BIGINT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255) NOT NULL,"
+            + " age INT NOT NULL, nom VARCHAR(255) NOT NULL, prenom VARCHAR(255) NOT NULL,"
+            + " email VARCHAR(255) NOT NULL UNIQUE, telephone VARCHAR(255), poste VARCHAR(255),"
+            + " departement VARCHAR(255), date_embauche VARCHAR(255), last_modified BIGINT)";
+    }
+
+    static Person person(String prenom, String nom, String email) {
+        Person person = new Person(prenom + " " + nom, 30, nom, prenom, email);
+        person.setDepartement("IT");
+        return person;
+    }
+}
@@ -0,0 +1,25 @@
+package com.person_back.rest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResponseCacheTest {
+
+    @Test
+    public void gzipIsSentOnlyWhenAccepted() {
+        assertTrue(ResponseCache.acceptsGzip("gzip"));
+        assertTrue(ResponseCache.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(ResponseCache.acceptsGzip("x-gzip"));
+        assertTrue(ResponseCache.acceptsGzip("br, *"));
+
+        assertFalse(ResponseCache.acceptsGzip(null));
+        assertFalse(ResponseCache.acceptsGzip(""));
+        assertFalse(ResponseCache.acceptsGzip("identity"));
+        assertFalse(ResponseCache.acceptsGzip("gzip;q=0"));
+        assertFalse(ResponseCache.acceptsGzip("gzip; q=0.0, deflate"));
+        assertFalse(ResponseCache.acceptsGzip("*, gzip;q=0"));
+        assertFalse(ResponseCache.acceptsGzip("*;q=0"));
+        assertFalse(ResponseCache.acceptsGzip("x-gzip-unsupported"));
+    }
+}